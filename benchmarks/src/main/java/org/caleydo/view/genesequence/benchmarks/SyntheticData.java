@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.caleydo.view.genesequence.internal.util.GAFParser;
+import org.caleydo.view.genesequence.internal.util.SyntheticAnnotationGenerator;
+import org.caleydo.view.genesequence.internal.util.SyntheticAnnotationGenerator.Distribution;
+import org.caleydo.view.genesequence.internal.util.SyntheticAnnotationGenerator.Locations;
+
+import com.google.common.base.Function;
+
+/**
+ * deterministic synthetic genes with one or more locations on a human like set of chromosomes, used as input of the
+ * benchmarks, see {@link SyntheticAnnotationGenerator}
+ *
+ * @author Samuel Gratzl
+ *
+ */
+public final class SyntheticData {
+	/**
+	 * fraction of genes with a second location
+	 */
+	private static final double MULTI_LOCUS_RATE = 0.05;
+
+	private final SyntheticAnnotationGenerator generator;
+	private final Locations locations;
+
+	public SyntheticData(int genes, long seed) {
+		this.generator = new SyntheticAnnotationGenerator(genes, SyntheticAnnotationGenerator.HUMAN_CHROMOSOMES,
+				MULTI_LOCUS_RATE, Distribution.lognormal(9.5, 1.2), seed);
+		this.locations = generator.generate();
+	}
+
+	public int getGenes() {
+		return generator.getGenes();
+	}
+
+	public int getLocations() {
+		return locations.size();
+	}
+
+	public String getChromosome(int chromosome) {
+		return generator.getChromosome(chromosome);
+	}
+
+	public int getChromosomeLength(int chromosome) {
+		return generator.getChromosomeLength(chromosome);
+	}
+
+	/**
+	 * @return the ids of all genes in a random order
+	 */
+	public List<Integer> getIDs() {
+		final int genes = getGenes();
+		List<Integer> r = new ArrayList<>(genes);
+		for (int i = 0; i < genes; ++i)
+			r.add(i);
+		Collections.shuffle(r, new Random(genes));
+		return r;
+	}
+
+	/**
+	 * @return gene symbol to gene id
+	 */
+	public static Function<String, Collection<Integer>> symbol2gene() {
+		return new Function<String, Collection<Integer>>() {
+			@Override
+			public Collection<Integer> apply(String input) {
+				return Collections.singleton(SyntheticAnnotationGenerator.toGene(input));
+			}
+		};
+	}
+
+	/**
+	 * @return the primary start of each gene
+	 */
+	public int[] getStarts() {
+		int[] r = new int[getGenes()];
+		for (int g = 0; g < r.length; ++g)
+			r[g] = locations.getStart(locations.getFirstLocation(g));
+		return r;
+	}
+
+	/**
+	 * @return the primary end of each gene
+	 */
+	public int[] getEnds() {
+		int[] r = new int[getGenes()];
+		for (int g = 0; g < r.length; ++g)
+			r[g] = locations.getEnd(locations.getFirstLocation(g));
+		return r;
+	}
+
+	/**
+	 * @return the set of chromosomes of each of the given genes
+	 */
+	public List<Set<String>> getChromosomes(List<Integer> ids) {
+		List<Set<String>> r = new ArrayList<>(ids.size());
+		for (Integer id : ids) {
+			Set<String> s = new HashSet<>(2);
+			for (int i = locations.getFirstLocation(id); i < locations.getFirstLocation(id + 1); ++i)
+				s.add(generator.getChromosome(locations.getChromosome(i)));
+			r.add(s);
+		}
+		return r;
+	}
+
+	/**
+	 * @return lines in the format of a gene.genome.gaf file, one per gene
+	 */
+	public List<String> toGAFLines() {
+		List<String> r = new ArrayList<>(getGenes());
+		for (int g = 0; g < getGenes(); ++g)
+			r.add(generator.toGAFLine(locations, g));
+		return r;
+	}
+
+	/**
+	 * writes the chromosomeMetaData.csv and the gene.genome.gaf files of this data set including the derived csv files
+	 * into the given directory
+	 */
+	public void writeAnnotations(File dir) throws IOException {
+		generator.write(dir);
+		GAFParser.convert(new File(dir, "gene.genome.gaf").getPath(), 1, false);
+	}
+}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.internal.util;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.caleydo.view.genesequence.benchmarks.SyntheticData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * parsing of gene.genome.gaf lines
+ *
+ * @author Samuel Gratzl
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GAFParserBenchmark {
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int genes;
+
+	private List<String> lines;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		lines = new SyntheticData(genes, 42).toGAFLines();
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) {
+		for (String line : lines)
+			bh.consume(GAFParser.parse(line));
+	}
+}
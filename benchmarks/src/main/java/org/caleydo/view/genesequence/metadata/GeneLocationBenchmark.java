@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.metadata;
+
+import gleem.linalg.open.Vec2i;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.caleydo.view.genesequence.benchmarks.SyntheticData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.base.Function;
+
+/**
+ * resolving the locations of a whole gene set, as done when a {@link org.caleydo.view.genesequence.ui.ChromosomeLocationElement}
+ * is created or switches the chromosome
+ *
+ * @author Samuel Gratzl
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneLocationBenchmark {
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int genes;
+
+	private File dir;
+	private List<Integer> ids;
+	private IDSnapshot snapshot;
+	private Gene2ChromosomeLocation gene2location;
+	private ID2ChromosomeLocation id2location;
+	private float[] ranges;
+	private String chromosome;
+	private List<Set<String>> chromosomes;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		SyntheticData data = new SyntheticData(genes, 42);
+		ids = data.getIDs();
+		snapshot = IDSnapshot.of(ids);
+
+		dir = Files.createTempDirectory("genesequence").toFile();
+		data.writeAnnotations(dir);
+		GeneLocationMetaData.setAnnotation(AnnotationFile.load(MappingSource.directory(dir)));
+
+		chromosome = data.getChromosome(0);
+		gene2location = new Gene2ChromosomeLocation(new GeneLocationResolver(SyntheticData.symbol2gene()),
+				chromosome);
+		ranges = new float[genes * 2];
+
+		final int[] starts = data.getStarts();
+		final int[] ends = data.getEnds();
+		id2location = new ID2ChromosomeLocation(chromosome, new Function<Integer, Vec2i>() {
+			@Override
+			public Vec2i apply(Integer input) {
+				Vec2i v = new Vec2i();
+				v.setX(starts[input]);
+				v.setY(ends[input]);
+				return v;
+			}
+		});
+		chromosomes = data.getChromosomes(ids);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		GeneLocationMetaData.setAnnotation(null);
+		for (File f : dir.listFiles())
+			Files.delete(f.toPath());
+		Files.delete(dir.toPath());
+		Files.deleteIfExists(MappingSource.directory(dir).getAnnotationFile().toPath());
+	}
+
+	@Benchmark
+	public void gene2ChromosomeLocationApply(Blackhole bh) {
+		for (Integer id : ids)
+			bh.consume(gene2location.apply(id));
+	}
+
+	/**
+	 * switching back to an already resolved chromosome
+	 */
+	@Benchmark
+	public float[] gene2ChromosomeLocationApplyAll() {
+		gene2location.applyAll(ids, ranges);
+		return ranges;
+	}
+
+	/**
+	 * resolving the ranges of a chromosome, as done in the background
+	 */
+	@Benchmark
+	public Object gene2ChromosomeLocationCompute() {
+		return gene2location.compute(chromosome, snapshot);
+	}
+
+	@Benchmark
+	public void id2ChromosomeLocationApply(Blackhole bh) {
+		for (Integer id : ids)
+			bh.consume(id2location.apply(id));
+	}
+
+	/**
+	 * the counting part of {@link ChromosomeMetaData#determineDefaultChromosome(List, org.caleydo.core.id.IDType)},
+	 * the id mapping itself is part of Caleydo
+	 */
+	@Benchmark
+	public String determineDefaultChromosome() {
+		return ChromosomeMetaData.mostFrequent(chromosomes);
+	}
+}
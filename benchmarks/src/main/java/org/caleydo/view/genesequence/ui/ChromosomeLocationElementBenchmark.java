@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.ui;
+
+import gleem.linalg.Vec2f;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.caleydo.core.data.collection.EDimension;
+import org.caleydo.core.view.opengl.layout2.manage.GLLocation;
+import org.caleydo.view.genesequence.benchmarks.SyntheticData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Function;
+
+/**
+ * brushing and hovering queries of a {@link ChromosomeLocationElement}, all genes are placed on the shown chromosome
+ *
+ * @author Samuel Gratzl
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChromosomeLocationElementBenchmark {
+	private static final float WIDTH = 1000;
+	private static final int QUERIES = 1024;
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	public int genes;
+	/**
+	 * width of the brushed range relative to the chromosome
+	 */
+	@Param({ "0.001", "0.05" })
+	public float window;
+
+	private ChromosomeLocationElement element;
+	private final float[] queries = new float[QUERIES];
+	private int query;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		SyntheticData data = new SyntheticData(genes, 42);
+		final int[] starts = data.getStarts();
+		final int[] ends = data.getEnds();
+		final float v = 1.f / data.getChromosomeLength(0);
+		element = new ChromosomeLocationElement(EDimension.DIMENSION, data.getIDs(), null,
+				new Function<Integer, Vec2f>() {
+					@Override
+					public Vec2f apply(Integer input) {
+						// project all genes on the first, i.e. longest, chromosome
+						return new Vec2f(starts[input] * v, (ends[input] - starts[input]) * v);
+					}
+				});
+		element.setSize(WIDTH, 20);
+		// resolve the locations and build the index outside of the measurement
+		element.getIDs(0, 1);
+
+		Random r = new Random(genes);
+		for (int i = 0; i < QUERIES; ++i)
+			queries[i] = r.nextFloat() * (1 - window);
+	}
+
+	private float next() {
+		query = (query + 1) & (QUERIES - 1);
+		return queries[query];
+	}
+
+	@Benchmark
+	public Set<Integer> getIDs() {
+		float a = next();
+		return element.getIDs(a, a + window);
+	}
+
+	/**
+	 * hovering a single pixel
+	 */
+	@Benchmark
+	public Set<Integer> getIDsAt() {
+		return element.getIDsAt(new Vec2f(next() * WIDTH, 10));
+	}
+
+	@Benchmark
+	public Set<Integer> unapply() {
+		float a = next();
+		return element.unapply(new GLLocation(a * WIDTH, window * WIDTH));
+	}
+}
@@ -6,18 +6,23 @@ import static org.caleydo.view.genesequence.metadata.ChromosomeMetaData.isCompat
 import gleem.linalg.Vec2f;
 
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.caleydo.core.data.collection.EDimension;
 import org.caleydo.core.id.IDType;
 import org.caleydo.core.util.color.Color;
 import org.caleydo.core.view.opengl.layout2.GLElement;
+import org.caleydo.core.view.opengl.layout2.IGLElementContext;
 import org.caleydo.core.view.opengl.layout2.basic.GLComboBox;
 import org.caleydo.core.view.opengl.layout2.manage.GLElementDimensionDesc;
 import org.caleydo.core.view.opengl.layout2.manage.GLElementFactoryContext;
 import org.caleydo.core.view.opengl.layout2.manage.IGLElementFactory2;
 import org.caleydo.core.view.opengl.layout2.renderer.GLRenderers;
 import org.caleydo.view.genesequence.metadata.Gene2ChromosomeLocation;
+import org.caleydo.view.genesequence.metadata.GenomeLayout;
+import org.caleydo.view.genesequence.metadata.IDSnapshot;
 import org.caleydo.view.genesequence.ui.ChromosomeLocationElement;
 
 import com.google.common.base.Function;
@@ -43,22 +48,42 @@ public class GeneSequenceFactory implements IGLElementFactory2 {
 		Function<Integer, Vec2f> id2range = context.get("id2range", Function.class, null);
 
 		if (id2range == null) {
-			// no lets to a chromosome mapping
+			// no lets to a chromosome mapping, GenomeLayout.GENOME for all chromosomes
 			String chromosome = context.get("chromosome", String.class, null);
 			Set<String> chromosmes = getChromosomes(data, idType);
 			if (chromosmes.isEmpty())
 				return null;
-			if (!chromosmes.contains(chromosome))
+			if (!chromosmes.contains(chromosome) && !GenomeLayout.GENOME.equals(chromosome))
 				chromosome = determineDefaultChromosome(data, idType);
 			id2range = new Gene2ChromosomeLocation(idType, chromosome);
 		}
 
-		return new ChromosomeLocationElement(context.get(EDimension.class, EDimension.DIMENSION), data, idType,
-				id2range);
+		ChromosomeLocationElement element = new ChromosomeLocationElement(context.get(EDimension.class,
+				EDimension.DIMENSION), data, idType, id2range);
+		if (id2range instanceof Gene2ChromosomeLocation) {
+			final Gene2ChromosomeLocation f = (Gene2ChromosomeLocation) id2range;
+			updateBoundaries(element, f);
+			element.setItemTooltip(new Function<Integer, String>() {
+				@Override
+				public String apply(Integer input) {
+					return f.describe(input);
+				}
+			});
+		}
+		Float lodThreshold = context.get("lodThreshold", Float.class, null);
+		if (lodThreshold != null)
+			element.setLevelOfDetailThreshold(lodThreshold);
+		if (Boolean.TRUE.equals(context.get("stacked", Boolean.class, null)))
+			element.setStacked(true);
+		return element;
 	}
 
 
 
+	private static void updateBoundaries(ChromosomeLocationElement element, Gene2ChromosomeLocation f) {
+		element.setBoundaries(f.isGenome() ? GenomeLayout.get().getBoundaries() : null);
+	}
+
 	@Override
 	public boolean apply(GLElementFactoryContext context) {
 		if (context.get(List.class, null) == null) // no list abort
@@ -85,24 +110,54 @@ public class GeneSequenceFactory implements IGLElementFactory2 {
 		// if we have a Gene2ChromosomeLocation mapping, create a selector for the chromosome
 		if (f instanceof Gene2ChromosomeLocation) {
 			Set<String> chromosomes = getChromosomes(c.getData(), c.getIDType());
-			return new ChromosomeSelector((Gene2ChromosomeLocation) f, elem, chromosomes);
+			return new ChromosomeSelector((Gene2ChromosomeLocation) f, c, chromosomes);
 		}
 		return null;
 	}
 
+	/**
+	 * switches the chromosome of a {@link Gene2ChromosomeLocation}, whose ranges are precomputed in the background
+	 * while it is shown
+	 */
 	private static final class ChromosomeSelector extends GLComboBox<String> implements
 			GLComboBox.ISelectionCallback<String> {
 		private Gene2ChromosomeLocation f;
-		private GLElement elem;
+		private ChromosomeLocationElement elem;
+		private final List<String> items;
+		private Future<?> precompute;
+		private Future<?> request;
+		/**
+		 * copy of the ids taken on the render thread, as the data list may change while being computed in the
+		 * background
+		 */
+		private IDSnapshot ids;
+		/**
+		 * the selected chromosome, which is shown as soon as its ranges are computed
+		 */
+		private volatile String pending;
+		/**
+		 * set in the background whenever a chromosome got computed, handled in the next frame
+		 */
+		private volatile boolean computed;
+		private final Runnable onComputed = new Runnable() {
+			@Override
+			public void run() {
+				computed = true;
+			}
+		};
 
 		/**
 		 * @param elem
 		 * @param f
 		 *
 		 */
-		public ChromosomeSelector(Gene2ChromosomeLocation f, GLElement elem, Set<String> chromosomes) {
-			super(Lists.newArrayList(chromosomes), GLComboBox.DEFAULT, GLRenderers
-					.fillRect(Color.WHITE));
+		public ChromosomeSelector(Gene2ChromosomeLocation f, ChromosomeLocationElement elem, Set<String> chromosomes) {
+			this(toItems(chromosomes), f, elem);
+		}
+
+		private ChromosomeSelector(List<String> items, Gene2ChromosomeLocation f, ChromosomeLocationElement elem) {
+			super(items, GLComboBox.DEFAULT, GLRenderers.fillRect(Color.WHITE));
+			this.items = items;
 			this.f = f;
 			this.elem = elem;
 			setCallback(this);
@@ -111,9 +166,81 @@ public class GeneSequenceFactory implements IGLElementFactory2 {
 			setSize(100, -1);
 		}
 
+		private static List<String> toItems(Set<String> chromosomes) {
+			List<String> items = Lists.newArrayList(GenomeLayout.GENOME);
+			items.addAll(chromosomes);
+			return items;
+		}
+
+		@Override
+		protected void init(IGLElementContext context) {
+			super.init(context);
+			startPrecompute(IDSnapshot.of(elem.getData()));
+		}
+
+		@Override
+		protected void takeDown() {
+			cancelPrecompute();
+			cancelRequest();
+			super.takeDown();
+		}
+
+		private void startPrecompute(IDSnapshot ids) {
+			cancelPrecompute();
+			this.ids = ids;
+			precompute = f.precompute(ids, elem.getIDType(), items, onComputed);
+		}
+
+		private void cancelPrecompute() {
+			if (precompute != null)
+				precompute.cancel(true);
+			precompute = null;
+		}
+
+		private void cancelRequest() {
+			if (request != null)
+				request.cancel(true);
+			request = null;
+		}
+
 		@Override
 		public void onSelectionChanged(GLComboBox<? extends String> widget, String item) {
-			f.setChromosome(item);
+			cancelRequest();
+			if (Objects.equals(item, f.getChromosome())) {
+				pending = null;
+				return;
+			}
+			IDSnapshot now = IDSnapshot.of(elem.getData());
+			if (!now.equals(ids)) // the data changed, the background work is outdated
+				startPrecompute(now);
+			if (f.isPrecomputed(ids, item)) {
+				pending = null;
+				show(item);
+				return;
+			}
+			// show it as soon as it is computed instead of stalling the next frame
+			pending = item;
+			request = f.request(ids, item, onComputed);
+		}
+
+		@Override
+		public void layout(int deltaTimeMs) {
+			// called every frame, such that a chromosome computed in the background is shown from the render thread
+			if (computed) {
+				computed = false;
+				String p = pending;
+				if (p != null && f.isPrecomputed(ids, p)) {
+					pending = null;
+					show(p);
+				}
+			}
+			super.layout(deltaTimeMs);
+		}
+
+		private void show(String chromosome) {
+			f.setChromosome(chromosome);
+			updateBoundaries(elem, f);
+			elem.invalidateLocations();
 			elem.repaintAll();
 		}
 	}
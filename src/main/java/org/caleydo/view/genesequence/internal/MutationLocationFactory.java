@@ -16,6 +16,8 @@ import org.caleydo.core.view.opengl.layout2.manage.GLElementDimensionDesc;
 import org.caleydo.core.view.opengl.layout2.manage.GLElementFactoryContext;
 import org.caleydo.core.view.opengl.layout2.manage.IGLElementFactory2;
 import org.caleydo.view.genesequence.metadata.ID2ChromosomeLocation;
+import org.caleydo.view.genesequence.metadata.IPositionSource;
+import org.caleydo.view.genesequence.metadata.MappingLoader;
 import org.caleydo.view.genesequence.ui.ChromosomeLocationElement;
 
 import com.google.common.base.Function;
@@ -38,25 +40,62 @@ public class MutationLocationFactory implements IGLElementFactory2 {
 		// and maybe their id type
 		IDType idType = context.get(IDType.class, null);
 
-		@SuppressWarnings("unchecked")
-		Function<Integer, Vec2i> id2position = context.get("id2position", Function.class, null);
 		String chromosome = context.get("chromosome", String.class, null);
 
-		ID2ChromosomeLocation id2range = new ID2ChromosomeLocation(chromosome, id2position);
+		final ID2ChromosomeLocation id2range = createLocation(context, ids, chromosome);
 		ChromosomeLocationElement element = new ChromosomeLocationElement(context.get(EDimension.class,
 				EDimension.DIMENSION), ids, idType, id2range);
 		String tooltip = context.get("tooltip", String.class, null);
-		if (tooltip != null)
+		if (tooltip != null) // a static tooltip replaces the ones of the hovered items
 			element.setTooltip(tooltip);
+		else
+			element.setItemTooltip(new Function<Integer, String>() {
+				@Override
+				public String apply(Integer input) {
+					return id2range.describe(input);
+				}
+			});
+		Float lodThreshold = context.get("lodThreshold", Float.class, null);
+		if (lodThreshold != null)
+			element.setLevelOfDetailThreshold(lodThreshold);
+		if (Boolean.TRUE.equals(context.get("stacked", Boolean.class, null)))
+			element.setStacked(true);
 		return element;
 	}
 
+	/**
+	 * the positions are given either as parallel <code>int[]</code> "starts" and "ends" arrays to the ids, as a bulk
+	 * "positions" {@link IPositionSource}, or as a per id "id2position" function
+	 */
+	private static ID2ChromosomeLocation createLocation(GLElementFactoryContext context, List<Integer> ids,
+			String chromosome) {
+		int[] starts = context.get("starts", int[].class, null);
+		int[] ends = context.get("ends", int[].class, null);
+		if (starts != null && ends != null)
+			return new ID2ChromosomeLocation(chromosome, ids, starts, ends);
+		IPositionSource positions = context.get("positions", IPositionSource.class, null);
+		if (positions != null)
+			return new ID2ChromosomeLocation(chromosome, positions);
+		@SuppressWarnings("unchecked")
+		Function<Integer, Vec2i> id2position = context.get("id2position", Function.class, null);
+		return new ID2ChromosomeLocation(chromosome, id2position);
+	}
+
+	private static boolean hasPositions(GLElementFactoryContext context) {
+		if (context.get("starts", int[].class, null) != null && context.get("ends", int[].class, null) != null)
+			return true;
+		return context.get("positions", IPositionSource.class, null) != null
+				|| context.get("id2position", Function.class, null) != null;
+	}
+
 	@Override
 	public boolean apply(GLElementFactoryContext context) {
 		if (context.get(List.class, null) == null || context.get("chromosome", String.class, null) == null
-				|| context.get("id2position", Function.class, null) == null)
+				|| !hasPositions(context))
 			// abort
 			return false;
+		if (!MappingLoader.isReady()) // chromosome lengths not yet loaded
+			return false;
 		return true;
 	}
 
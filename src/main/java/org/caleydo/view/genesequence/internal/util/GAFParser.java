@@ -4,18 +4,37 @@ package org.caleydo.view.genesequence.internal.util;
  * Copyright (c) The Caleydo Team. All rights reserved.
  * Licensed under the new BSD license, available at http://caleydo.org/license
  *******************************************************************************/
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.File;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedHashSet;
+import java.util.Deque;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
 
@@ -28,109 +47,355 @@ import com.google.common.collect.Multiset;
  */
 public class GAFParser {
 
-	public static void main(String[] args) throws FileNotFoundException, IOException {
-		Set<Output> out = new LinkedHashSet<>();
+	/**
+	 * number of lines parsed as one task
+	 */
+	private static final int CHUNK_SIZE = 4096;
 
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * usage: <code>GAFParser [-t threads] [-z] [file]</code>, the number of threads defaults to the number of
+	 * processors. The input may be plain or gzip/bgzip compressed, <code>-z</code> writes gzip compressed outputs
+	 * (.csv.gz)
+	 *
+	 * @param args
+	 */
+	public static void main(String[] args) throws FileNotFoundException, IOException {
 		String file = "gene.genome.gaf";
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean compress = false;
+		for (int i = 0; i < args.length; ++i) {
+			if ("-t".equals(args[i]) && i + 1 < args.length)
+				threads = Math.max(1, Integer.parseInt(args[++i]));
+			else if ("-z".equals(args[i]))
+				compress = true;
+			else
+				file = args[i];
+		}
+		convert(file, threads, compress);
+	}
 
-		try (BufferedReader r = new BufferedReader(new FileReader(new File(file)))) {
+	/**
+	 * converts the given gaf file to the three csv files next to it
+	 *
+	 * @param file
+	 *            the plain or compressed gaf file
+	 * @param threads
+	 *            number of threads for parsing
+	 * @param compress
+	 *            whether gzip compressed outputs should be written
+	 * @throws IOException
+	 */
+	public static void convert(String file, int threads, boolean compress) throws IOException {
+		// gene.genome.gaf.gz -> gene.genome.gaf.csv
+		String base = file.replaceAll("\\.b?gz$", "");
+
+		try (BufferedReader in = open(file); Sink out = new Sink(base, compress)) {
+			if (threads <= 1)
+				convert(in, out);
+			else
+				convert(in, out, threads);
+		}
+	}
+
+	/**
+	 * opens the given file, which is decompressed if it starts with the gzip magic bytes. Gzip streams consisting of
+	 * multiple members, like the blocks of bgzip, are read as a whole.
+	 */
+	private static BufferedReader open(String file) throws IOException {
+		InputStream in = new BufferedInputStream(Channels.newInputStream(FileChannel.open(Paths.get(file),
+				StandardOpenOption.READ)), BUFFER_SIZE);
+		try {
+			in.mark(2);
+			int magic = in.read() | (in.read() << 8);
+			in.reset();
+			if (magic == GZIPInputStream.GZIP_MAGIC)
+				in = new GZIPInputStream(in, BUFFER_SIZE);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return new BufferedReader(new InputStreamReader(in, Charset.defaultCharset()), BUFFER_SIZE);
+	}
+
+	private static PrintWriter create(String file, boolean compress) throws IOException {
+		OutputStream out = Channels.newOutputStream(FileChannel.open(Paths.get(compress ? file + ".gz" : file),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+		out = compress ? new GZIPOutputStream(out, BUFFER_SIZE) : new BufferedOutputStream(out, BUFFER_SIZE);
+		return new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, Charset.defaultCharset())));
+	}
+
+	private static void convert(BufferedReader in, Sink out) throws IOException {
+		String line;
+		while ((line = in.readLine()) != null)
+			out.write(parse(line));
+	}
+
+	/**
+	 * parses chunks of lines in parallel and writes their records in the order of the input, such that the outputs are
+	 * the same as the ones of the sequential version
+	 */
+	private static void convert(BufferedReader in, Sink out, int threads) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		// limit the number of chunks in flight to bound the memory
+		final int maxPending = threads * 4;
+		Deque<Future<List<Output>>> pending = new ArrayDeque<>(maxPending);
+		try {
+			List<String> chunk = new ArrayList<>(CHUNK_SIZE);
 			String line;
-			while ((line = r.readLine()) != null) {
-				out.addAll(parse(line));
+			while ((line = in.readLine()) != null) {
+				chunk.add(line);
+				if (chunk.size() < CHUNK_SIZE)
+					continue;
+				pending.add(pool.submit(new ParseChunk(chunk)));
+				chunk = new ArrayList<>(CHUNK_SIZE);
+				if (pending.size() >= maxPending)
+					out.write(await(pending.poll()));
 			}
+			if (!chunk.isEmpty())
+				pending.add(pool.submit(new ParseChunk(chunk)));
+			while (!pending.isEmpty())
+				out.write(await(pending.poll()));
+		} finally {
+			pool.shutdownNow();
 		}
-		try (PrintWriter r = new PrintWriter(new File(file + ".csv"))) {
-			Multiset<String> keys = HashMultiset.create();
-			r.append("GeneLocation").append('\t').append("Gene").append('\t').append("Chromosome").append('\t');
-			r.append("Start").append('\t').append("End").append('\t').append("Strand").println();
+	}
 
-			for (Output o : out) {
-				String pair = o.gene + "@" + o.chromosome;
-				int count = keys.count(pair);
-				keys.add(pair);
-				if (count > 0)
-					pair += "#" + count;
-				r.append(pair).append('\t');
-				r.append(o.gene).append('\t');
-				r.append(o.chromosome).append('\t');
-				r.append(String.valueOf(o.start)).append('\t');
-				r.append(String.valueOf(o.end)).append('\t');
-				r.append(o.strand);
-				r.println();
-			}
+	private static List<Output> await(Future<List<Output>> chunk) throws IOException {
+		try {
+			return chunk.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while parsing");
+		} catch (ExecutionException e) {
+			Throwables.propagateIfPossible(e.getCause(), IOException.class);
+			throw new IOException(e.getCause());
 		}
+	}
 
-		try (PrintWriter r = new PrintWriter(new File(file + ".gene2loc.csv"))) {
-			Multiset<String> keys = HashMultiset.create();
-			r.append("Gene").append('\t').append("GeneLocation").println();
+	private static final class ParseChunk implements Callable<List<Output>> {
+		private final List<String> lines;
 
-			for (Output o : out) {
-				String pair = o.gene + "@" + o.chromosome;
-				int count = keys.count(pair);
-				keys.add(pair);
-				if (count > 0)
-					pair += "#" + count;
-				r.append(o.gene).append('\t');
-				r.append(pair);
-				r.println();
-			}
+		public ParseChunk(List<String> lines) {
+			this.lines = lines;
 		}
 
-		try (PrintWriter r = new PrintWriter(new File(file + ".loc2chr.csv"))) {
-			Multiset<String> keys = HashMultiset.create();
-			r.append("GeneLocation").append('\t').append("Chromosome").println();
+		@Override
+		public List<Output> call() {
+			List<Output> r = new ArrayList<>(lines.size());
+			for (String line : lines)
+				r.addAll(parse(line));
+			return r;
+		}
+	}
+
+	/**
+	 * writes the records to the three output files
+	 */
+	private static final class Sink implements Closeable {
+		/**
+		 * duplicates are detected by a 64 bit fingerprint, such that only 8 bytes per distinct record are kept
+		 */
+		private final LongHashSet seen = new LongHashSet(1 << 16);
+		private final Multiset<String> keys = HashMultiset.create();
+
+		private final PrintWriter locations;
+		private final PrintWriter gene2loc;
+		private final PrintWriter loc2chr;
+
+		public Sink(String file, boolean compress) throws IOException {
+			this.locations = create(file + ".csv", compress);
+			this.gene2loc = create(file + ".gene2loc.csv", compress);
+			this.loc2chr = create(file + ".loc2chr.csv", compress);
 
-			for (Output o : out) {
+			locations.append("GeneLocation").append('\t').append("Gene").append('\t').append("Chromosome").append('\t');
+			locations.append("Start").append('\t').append("End").append('\t').append("Strand").println();
+			gene2loc.append("Gene").append('\t').append("GeneLocation").println();
+			loc2chr.append("GeneLocation").append('\t').append("Chromosome").println();
+		}
+
+		public void write(Collection<Output> records) {
+			for (Output o : records) {
+				if (!seen.add(o.fingerprint))
+					continue;
 				String pair = o.gene + "@" + o.chromosome;
-				int count = keys.count(pair);
-				keys.add(pair);
+				int count = keys.add(pair, 1);
 				if (count > 0)
 					pair += "#" + count;
-				r.append(pair).append('\t');
-				r.append(o.chromosome);
-				r.println();
+				write(o, pair);
 			}
 		}
 
+		private void write(Output o, String pair) {
+			locations.append(pair).append('\t');
+			locations.append(o.gene).append('\t');
+			locations.append(o.chromosome).append('\t');
+			locations.append(String.valueOf(o.start)).append('\t');
+			locations.append(String.valueOf(o.end)).append('\t');
+			locations.append(o.strand);
+			locations.println();
+
+			gene2loc.append(o.gene).append('\t');
+			gene2loc.append(pair);
+			gene2loc.println();
+
+			loc2chr.append(pair).append('\t');
+			loc2chr.append(o.chromosome);
+			loc2chr.println();
+		}
+
+		@Override
+		public void close() throws IOException {
+			locations.close();
+			gene2loc.close();
+			loc2chr.close();
+			if (locations.checkError() || gene2loc.checkError() || loc2chr.checkError())
+				throw new IOException("can't write the outputs");
+		}
 	}
 
 	/**
+	 * parses the gene (column 15) and its locations (column 16) of a line, by scanning the line once without splitting
+	 * it
+	 *
 	 * @param line
 	 * @return
 	 */
-	private static Collection<Output> parse(String line) {
-		String[] lines = line.split("\t");
+	static Collection<Output> parse(String line) {
 		// 4705 C9orf62|157927 gene calculated genomic GRCh37-lite genome NCBI GRCh37-lite pairwise
 		// 1-223,224-655,656-1920 chr9:138235095-138235317,138235868-138236299,138237140-138238404:+ C9orf62|157927
 		// chr9:138235095-138238404:+ Confidence=400
 		// P
 		// Q
-		String gene = lines[15];
-		String locs = lines[16];
-		gene = gene.substring(0, gene.indexOf('|'));
-		List<Output> r = new ArrayList<>();
-		for (String loc : locs.split(";")) {
-			// chr17:3900705-3910012:-;chr17:4481333-4481583:-
-			String[] locSplitted = loc.split(":");
-			if (locSplitted.length < 2)
-				continue;
-			String chromosome = locSplitted[0];
-			// System.out.println(loc);
-			String[] range = locSplitted[1].split("-");
-			int start = Integer.parseInt(range[0]);
-			int end = range.length == 1 ? start : Integer.parseInt(range[1]);
-			String strand = (locSplitted.length > 2) ? locSplitted[2] : "";
-			r.add(new Output(gene, chromosome, start, end, strand));
+		final int n = line.length();
+		int geneStart = 0;
+		for (int column = 0; column < 15; ++column) {
+			geneStart = indexOf(line, '\t', geneStart, n) + 1;
+			if (geneStart == 0)
+				throw new IllegalArgumentException("missing gene column: " + line);
+		}
+		int geneEnd = indexOf(line, '\t', geneStart, n);
+		if (geneEnd < 0)
+			throw new IllegalArgumentException("missing location column: " + line);
+		int bar = indexOf(line, '|', geneStart, geneEnd);
+		if (bar < 0)
+			throw new IllegalArgumentException("invalid gene: " + line.substring(geneStart, geneEnd));
+		String gene = line.substring(geneStart, bar);
+
+		final int locsStart = geneEnd + 1;
+		int locsEnd = indexOf(line, '\t', locsStart, n);
+		if (locsEnd < 0)
+			locsEnd = n;
+		List<Output> r = new ArrayList<>(2);
+		// chr17:3900705-3910012:-;chr17:4481333-4481583:-
+		for (int from = locsStart; from <= locsEnd;) {
+			int to = indexOf(line, ';', from, locsEnd);
+			if (to < 0)
+				to = locsEnd;
+			Output o = parseLocation(line, from, to, gene);
+			if (o != null)
+				r.add(o);
+			from = to + 1;
 		}
 		return r;
 	}
 
+	/**
+	 * parses a single location <code>chromosome:start[-end][:strand]</code>, trailing empty fields are ignored
+	 *
+	 * @return the location or null if it doesn't contain a range
+	 */
+	private static Output parseLocation(String line, int from, int to, String gene) {
+		int chromosomeEnd = indexOf(line, ':', from, to);
+		if (chromosomeEnd < 0 || !hasContent(line, ':', chromosomeEnd + 1, to))
+			return null;
+		int rangeStart = chromosomeEnd + 1;
+		int rangeEnd = indexOf(line, ':', rangeStart, to);
+		if (rangeEnd < 0)
+			rangeEnd = to;
+
+		int dash = indexOf(line, '-', rangeStart, rangeEnd);
+		int start, end;
+		if (dash < 0) {
+			start = end = parseInt(line, rangeStart, rangeEnd);
+		} else {
+			start = parseInt(line, rangeStart, dash);
+			if (hasContent(line, '-', dash + 1, rangeEnd)) {
+				int endEnd = indexOf(line, '-', dash + 1, rangeEnd);
+				end = parseInt(line, dash + 1, endEnd < 0 ? rangeEnd : endEnd);
+			} else
+				end = start;
+		}
+
+		String strand = "";
+		if (rangeEnd < to && hasContent(line, ':', rangeEnd + 1, to)) {
+			int strandEnd = indexOf(line, ':', rangeEnd + 1, to);
+			strand = toStrand(line, rangeEnd + 1, strandEnd < 0 ? to : strandEnd);
+		}
+		return new Output(gene, line.substring(from, chromosomeEnd), start, end, strand);
+	}
+
+	private static String toStrand(String line, int from, int to) {
+		if (to - from == 1) {
+			switch (line.charAt(from)) {
+			case '+':
+				return "+";
+			case '-':
+				return "-";
+			}
+		}
+		return line.substring(from, to);
+	}
+
+	private static int indexOf(String line, char c, int from, int to) {
+		for (int i = from; i < to; ++i)
+			if (line.charAt(i) == c)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * @return whether the range contains another character than the given separator
+	 */
+	private static boolean hasContent(String line, char separator, int from, int to) {
+		for (int i = from; i < to; ++i)
+			if (line.charAt(i) != separator)
+				return true;
+		return false;
+	}
+
+	/**
+	 * same as {@link Integer#parseInt(String)} of the given range
+	 */
+	private static int parseInt(String line, int from, int to) {
+		if (from >= to)
+			throw new NumberFormatException("empty number");
+		int i = from;
+		if (line.charAt(i) == '+' && to - from > 1)
+			i++;
+		long v = 0;
+		for (; i < to; ++i) {
+			int digit = Character.digit(line.charAt(i), 10);
+			if (digit < 0)
+				throw new NumberFormatException("For input string: \"" + line.substring(from, to) + "\"");
+			v = v * 10 + digit;
+			if (v > Integer.MAX_VALUE)
+				throw new NumberFormatException("For input string: \"" + line.substring(from, to) + "\"");
+		}
+		return (int) v;
+	}
+
 	static class Output {
 		String gene;
 		String chromosome;
 		int start;
 		int end;
 		String strand;
+		/**
+		 * a 64 bit hash of all fields, used instead of {@link #equals(Object)} for detecting duplicates
+		 */
+		final long fingerprint;
 
 		public Output(String gene, String chromosome, int start, int end, String strand) {
 			this.gene = gene;
@@ -138,6 +403,30 @@ public class GAFParser {
 			this.start = start;
 			this.end = end;
 			this.strand = strand;
+			this.fingerprint = fingerprint();
+		}
+
+		private long fingerprint() {
+			long h = 0xcbf29ce484222325L;
+			h = hash(h, gene);
+			h = hash(h, chromosome);
+			h = (h ^ start) * 0x100000001b3L;
+			h = (h ^ end) * 0x100000001b3L;
+			h = hash(h, strand);
+			// final avalanche
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+			return h;
+		}
+
+		private static long hash(long h, String s) {
+			for (int i = 0; i < s.length(); ++i)
+				h = (h ^ s.charAt(i)) * 0x100000001b3L;
+			// field separator
+			return (h ^ 0xffff) * 0x100000001b3L;
 		}
 
 		@Override
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.internal.util;
+
+import java.util.Arrays;
+
+/**
+ * a minimal open addressing hash map from int to int without boxing
+ *
+ * @author Samuel Gratzl
+ *
+ */
+public final class IntIntHashMap {
+	private static final int FREE = Integer.MIN_VALUE;
+
+	private int[] keys;
+	private int[] values;
+	private int size = 0;
+	private int mask;
+
+	/**
+	 * special handling for the key, which is used as free marker
+	 */
+	private boolean hasFreeKey = false;
+	private int freeValue;
+
+	public IntIntHashMap() {
+		this(16);
+	}
+
+	public IntIntHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		Arrays.fill(keys, FREE);
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @param key
+	 * @param missing
+	 *            the value to return if the key is not contained
+	 * @return
+	 */
+	public int get(int key, int missing) {
+		if (key == FREE)
+			return hasFreeKey ? freeValue : missing;
+		int i = hash(key) & mask;
+		int k;
+		while ((k = keys[i]) != FREE) {
+			if (k == key)
+				return values[i];
+			i = (i + 1) & mask;
+		}
+		return missing;
+	}
+
+	public boolean containsKey(int key) {
+		if (key == FREE)
+			return hasFreeKey;
+		int i = hash(key) & mask;
+		int k;
+		while ((k = keys[i]) != FREE) {
+			if (k == key)
+				return true;
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	public void put(int key, int value) {
+		if (key == FREE) {
+			if (!hasFreeKey)
+				size++;
+			hasFreeKey = true;
+			freeValue = value;
+			return;
+		}
+		int i = hash(key) & mask;
+		int k;
+		while ((k = keys[i]) != FREE) {
+			if (k == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		if (++size * 2 > keys.length)
+			rehash();
+	}
+
+	private void rehash() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(keys.length * 2);
+		for (int j = 0; j < oldKeys.length; ++j) {
+			int key = oldKeys[j];
+			if (key == FREE)
+				continue;
+			int i = hash(key) & mask;
+			while (keys[i] != FREE)
+				i = (i + 1) & mask;
+			keys[i] = key;
+			values[i] = oldValues[j];
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+}
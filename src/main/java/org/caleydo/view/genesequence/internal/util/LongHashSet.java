@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.internal.util;
+
+/**
+ * a minimal open addressing hash set of longs without boxing
+ *
+ * @author Samuel Gratzl
+ *
+ */
+public final class LongHashSet {
+	private static final long FREE = 0;
+
+	private long[] keys;
+	private int size = 0;
+	private int mask;
+
+	/**
+	 * special handling for the key, which is used as free marker
+	 */
+	private boolean hasFreeKey = false;
+
+	public LongHashSet() {
+		this(16);
+	}
+
+	public LongHashSet(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	public boolean contains(long key) {
+		if (key == FREE)
+			return hasFreeKey;
+		int i = hash(key) & mask;
+		long k;
+		while ((k = keys[i]) != FREE) {
+			if (k == key)
+				return true;
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * @param key
+	 * @return whether the key was added, i.e. wasn't contained before
+	 */
+	public boolean add(long key) {
+		if (key == FREE) {
+			if (hasFreeKey)
+				return false;
+			size++;
+			return hasFreeKey = true;
+		}
+		int i = hash(key) & mask;
+		long k;
+		while ((k = keys[i]) != FREE) {
+			if (k == key)
+				return false;
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		if (++size * 2 > keys.length)
+			rehash();
+		return true;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		allocate(keys.length * 2);
+		for (long key : oldKeys) {
+			if (key == FREE)
+				continue;
+			int i = hash(key) & mask;
+			while (keys[i] != FREE)
+				i = (i + 1) & mask;
+			keys[i] = key;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+}
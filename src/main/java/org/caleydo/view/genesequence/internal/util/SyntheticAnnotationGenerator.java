@@ -0,0 +1,352 @@
+package org.caleydo.view.genesequence.internal.util;
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * generates a synthetic gene.genome.gaf file together with the chromosomeMetaData.csv and the derived csv files (see
+ * {@link GAFParser}), such that the loading and rendering can be tested offline and at any scale, see the system
+ * property <code>org.caleydo.view.genesequence.mappingDirectory</code>
+ *
+ * <pre>
+ * SyntheticAnnotationGenerator [-o dir] [-genes n] [-chromosomes n] [-multi rate] [-length distribution] [-seed n] [-t threads] [-z]
+ * </pre>
+ *
+ * distribution of the interval lengths: <code>lognormal:mu,sigma</code> (default lognormal:9.5,1.2, i.e. a median of
+ * about 13kb), <code>uniform:min,max</code>, or <code>fixed:length</code>
+ *
+ * @author Samuel Gratzl
+ *
+ */
+public class SyntheticAnnotationGenerator {
+	/**
+	 * lengths of the human chromosomes (GRCh37) in mega bases
+	 */
+	private static final int[] HUMAN = { 249, 243, 198, 191, 181, 171, 159, 146, 141, 136, 135, 134, 115, 107, 102, 90,
+			81, 78, 59, 63, 48, 51, 155, 59 };
+	/**
+	 * number of human chromosomes, i.e. chr1 to chr22, chrX, and chrY
+	 */
+	public static final int HUMAN_CHROMOSOMES = HUMAN.length;
+
+	private final int genes;
+	private final double multiLocusRate;
+	private final Distribution lengths;
+	private final String[] chromosomes;
+	private final int[] chromosomeLengths;
+	private final long totalLength;
+	private final long seed;
+
+	public SyntheticAnnotationGenerator(int genes, int chromosomes, double multiLocusRate, Distribution lengths,
+			long seed) {
+		this.genes = genes;
+		this.multiLocusRate = multiLocusRate;
+		this.lengths = lengths;
+		this.seed = seed;
+		this.chromosomes = new String[chromosomes];
+		this.chromosomeLengths = new int[chromosomes];
+		Random r = new Random(seed);
+		long total = 0;
+		for (int i = 0; i < chromosomes; ++i) {
+			this.chromosomes[i] = toChromosomeName(i);
+			this.chromosomeLengths[i] = (i < HUMAN.length ? HUMAN[i] : 50 + r.nextInt(200)) * 1000000;
+			total += chromosomeLengths[i];
+		}
+		this.totalLength = total;
+	}
+
+	private static String toChromosomeName(int i) {
+		if (i < 22)
+			return "chr" + (i + 1);
+		if (i == 22)
+			return "chrX";
+		if (i == 23)
+			return "chrY";
+		return "chrS" + (i - 23);
+	}
+
+	/**
+	 * @param gene
+	 * @return the gene symbol of the given synthetic gene
+	 */
+	public static String toSymbol(int gene) {
+		return "SG" + gene;
+	}
+
+	/**
+	 * @param symbol
+	 * @return the synthetic gene of the given gene symbol, see {@link #toSymbol(int)}
+	 */
+	public static int toGene(String symbol) {
+		return Integer.parseInt(symbol.substring(2));
+	}
+
+	public int getGenes() {
+		return genes;
+	}
+
+	public int getChromosomeCount() {
+		return chromosomes.length;
+	}
+
+	public String getChromosome(int chromosome) {
+		return chromosomes[chromosome];
+	}
+
+	public int getChromosomeLength(int chromosome) {
+		return chromosomeLengths[chromosome];
+	}
+
+	public static void main(String[] args) throws IOException {
+		File dir = new File("synthetic");
+		// 10x human
+		int genes = 200000;
+		int chromosomes = HUMAN.length;
+		double multiLocusRate = 0.05;
+		Distribution lengths = Distribution.parse("lognormal:9.5,1.2");
+		long seed = 42;
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean compress = false;
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+			if ("-z".equals(arg)) {
+				compress = true;
+				continue;
+			}
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("missing value of " + arg);
+			String value = args[++i];
+			switch (arg) {
+			case "-o":
+				dir = new File(value);
+				break;
+			case "-genes":
+				genes = Integer.parseInt(value);
+				break;
+			case "-chromosomes":
+				chromosomes = Integer.parseInt(value);
+				break;
+			case "-multi":
+				multiLocusRate = Double.parseDouble(value);
+				break;
+			case "-length":
+				lengths = Distribution.parse(value);
+				break;
+			case "-seed":
+				seed = Long.parseLong(value);
+				break;
+			case "-t":
+				threads = Math.max(1, Integer.parseInt(value));
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option: " + arg);
+			}
+		}
+		Files.createDirectories(dir.toPath());
+		new SyntheticAnnotationGenerator(genes, chromosomes, multiLocusRate, lengths, seed).write(dir);
+		GAFParser.convert(new File(dir, "gene.genome.gaf").getPath(), threads, compress);
+	}
+
+	/**
+	 * generates the locations of all genes, the same ones for the same seed
+	 *
+	 * @return
+	 */
+	public Locations generate() {
+		Random r = new Random(seed);
+		Locations l = new Locations(genes, genes + (int) (genes * multiLocusRate * 1.2) + 16);
+		for (int gene = 0; gene < genes; ++gene) {
+			l.firstLocation[gene] = l.size;
+			addLocation(l, r);
+			while (r.nextDouble() < multiLocusRate)
+				addLocation(l, r);
+		}
+		l.firstLocation[genes] = l.size;
+		return l;
+	}
+
+	private void addLocation(Locations l, Random r) {
+		// weighted by the chromosome length
+		long pos = (long) (r.nextDouble() * totalLength);
+		int c = 0;
+		while (pos >= chromosomeLengths[c]) {
+			pos -= chromosomeLengths[c];
+			c++;
+		}
+		int length = Math.max(1, Math.min(chromosomeLengths[c] - 1, lengths.next(r)));
+		int start = 1 + r.nextInt(chromosomeLengths[c] - length);
+		l.add(c, start, start + length - 1, r.nextBoolean());
+	}
+
+	/**
+	 * writes the chromosomeMetaData.csv and gene.genome.gaf files into the given directory
+	 *
+	 * @param dir
+	 * @throws IOException
+	 */
+	public void write(File dir) throws IOException {
+		try (PrintWriter w = create(new File(dir, "chromosomeMetaData.csv"))) {
+			w.append("Chromosome").append('\t').append("Name").append('\t').append("Length").println();
+			for (int i = 0; i < chromosomes.length; ++i) {
+				w.append(chromosomes[i]).append('\t').append(chromosomes[i]).append('\t');
+				w.append(String.valueOf(chromosomeLengths[i])).println();
+			}
+		}
+		Locations l = generate();
+		try (PrintWriter w = create(new File(dir, "gene.genome.gaf"))) {
+			for (int gene = 0; gene < genes; ++gene)
+				w.append(toGAFLine(l, gene)).println();
+		}
+	}
+
+	/**
+	 * @return a line in the format of a gene.genome.gaf file, only the columns 15 and 16 are used by the
+	 *         {@link GAFParser}
+	 */
+	public String toGAFLine(Locations l, int gene) {
+		StringBuilder locations = new StringBuilder();
+		for (int i = l.firstLocation[gene]; i < l.firstLocation[gene + 1]; ++i) {
+			if (locations.length() > 0)
+				locations.append(';');
+			locations.append(chromosomes[l.chromosome[i]]).append(':').append(l.start[i]).append('-')
+					.append(l.end[i]).append(':').append(l.forward[i] ? '+' : '-');
+		}
+		String feature = toSymbol(gene) + "|" + (1000000 + gene);
+		StringBuilder b = new StringBuilder();
+		b.append(gene).append('\t').append(feature);
+		b.append("\tgene\tcalculated\tgenomic\tGRCh37-lite\tgenome\tNCBI\tGRCh37-lite\tpairwise\t1-100\t");
+		b.append(locations).append('\t').append(feature).append("\t\t\t").append(feature).append('\t');
+		b.append(locations).append("\tConfidence=400");
+		return b.toString();
+	}
+
+	private static PrintWriter create(File file) throws IOException {
+		return new PrintWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()),
+				Charset.defaultCharset()), 1 << 16));
+	}
+
+	/**
+	 * the generated locations, the ones of a gene are the range from its first location up to the first location of
+	 * the next gene, the first one is the primary location of the gene
+	 */
+	public static final class Locations {
+		private final int[] firstLocation;
+		private int[] chromosome;
+		private int[] start;
+		private int[] end;
+		private boolean[] forward;
+		private int size = 0;
+
+		Locations(int genes, int capacity) {
+			this.firstLocation = new int[genes + 1];
+			this.chromosome = new int[capacity];
+			this.start = new int[capacity];
+			this.end = new int[capacity];
+			this.forward = new boolean[capacity];
+		}
+
+		void add(int chromosome, int start, int end, boolean forward) {
+			if (size == this.chromosome.length) {
+				int capacity = size * 2;
+				this.chromosome = Arrays.copyOf(this.chromosome, capacity);
+				this.start = Arrays.copyOf(this.start, capacity);
+				this.end = Arrays.copyOf(this.end, capacity);
+				this.forward = Arrays.copyOf(this.forward, capacity);
+			}
+			this.chromosome[size] = chromosome;
+			this.start[size] = start;
+			this.end[size] = end;
+			this.forward[size] = forward;
+			size++;
+		}
+
+		/**
+		 * @return the number of locations
+		 */
+		public int size() {
+			return size;
+		}
+
+		public int getFirstLocation(int gene) {
+			return firstLocation[gene];
+		}
+
+		public int getChromosome(int location) {
+			return chromosome[location];
+		}
+
+		public int getStart(int location) {
+			return start[location];
+		}
+
+		public int getEnd(int location) {
+			return end[location];
+		}
+
+		public boolean isForward(int location) {
+			return forward[location];
+		}
+	}
+
+	/**
+	 * distribution of the interval lengths
+	 */
+	public static abstract class Distribution {
+		public abstract int next(Random r);
+
+		/**
+		 * @param spec
+		 *            <code>lognormal:mu,sigma</code>, <code>uniform:min,max</code>, or <code>fixed:length</code>
+		 * @return
+		 */
+		public static Distribution parse(String spec) {
+			int colon = spec.indexOf(':');
+			String type = colon < 0 ? spec : spec.substring(0, colon);
+			String[] params = colon < 0 ? new String[0] : spec.substring(colon + 1).split(",");
+			switch (type) {
+			case "lognormal":
+				if (params.length == 2)
+					return lognormal(Double.parseDouble(params[0]), Double.parseDouble(params[1]));
+				break;
+			case "uniform":
+				if (params.length == 2)
+					return uniform(Integer.parseInt(params[0]), Integer.parseInt(params[1]));
+				break;
+			case "fixed":
+				if (params.length == 1)
+					return uniform(Integer.parseInt(params[0]), Integer.parseInt(params[0]));
+				break;
+			}
+			throw new IllegalArgumentException("invalid length distribution: " + spec);
+		}
+
+		public static Distribution lognormal(final double mu, final double sigma) {
+			return new Distribution() {
+				@Override
+				public int next(Random r) {
+					return (int) Math.min(Integer.MAX_VALUE, Math.exp(mu + sigma * r.nextGaussian()));
+				}
+			};
+		}
+
+		public static Distribution uniform(final int min, final int max) {
+			return new Distribution() {
+				@Override
+				public int next(Random r) {
+					return min + r.nextInt(max - min + 1);
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,473 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.metadata;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.caleydo.core.util.logging.Logger;
+
+/**
+ * a versioned binary version of the gene location annotations, which is created once from the csv files and memory
+ * mapped on later starts.
+ *
+ * layout: a fixed header (magic, version, fingerprint of the source files, counts, section offsets) followed by the
+ * sections. Besides the locations it holds the chromosome meta data (name and total length), such that neither the
+ * mappings nor the chromosome meta data have to be parsed from their csv files on later starts. Strings are stored in string tables (offsets + utf-8 blob), chromosome and gene names are sorted, the
+ * location records are sorted by chromosome and start, such that the records of a chromosome are a contiguous range.
+ *
+ * @author Samuel Gratzl
+ *
+ */
+final class AnnotationFile {
+	private static final Logger log = Logger.create(AnnotationFile.class);
+
+	private static final int MAGIC = 0x43475341; // CGSA
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 3 * 4 + 12 * 4;
+
+	static final String LOCATIONS = "gene.genome.gaf.csv";
+	static final String CHROMOSOMES = "chromosomeMetaData.csv";
+
+	private final ByteBuffer buffer;
+	private final int chromosomeCount;
+	private final int geneCount;
+	private final int locationCount;
+
+	private final StringTable chromosomeNames;
+	private final int chromosomeLengths;
+	private final int chromosomeFirstLocation;
+	private final StringTable geneNames;
+	private final StringTable locationNames;
+	private final int locationNameOrder;
+	private final int locationGenes;
+	private final int locationChromosomes;
+	private final int locationStarts;
+	private final int locationEnds;
+	private final int locationStrands;
+	private final StringTable chromosomeLabels;
+
+	private AnnotationFile(ByteBuffer buffer) {
+		this.buffer = buffer;
+		int p = 16;
+		this.chromosomeCount = buffer.getInt(p);
+		this.geneCount = buffer.getInt(p + 4);
+		this.locationCount = buffer.getInt(p + 8);
+		p += 12;
+		this.chromosomeNames = new StringTable(buffer, buffer.getInt(p));
+		this.chromosomeLengths = buffer.getInt(p + 4);
+		this.chromosomeFirstLocation = buffer.getInt(p + 8);
+		this.geneNames = new StringTable(buffer, buffer.getInt(p + 12));
+		this.locationNames = new StringTable(buffer, buffer.getInt(p + 16));
+		this.locationNameOrder = buffer.getInt(p + 20);
+		this.locationGenes = buffer.getInt(p + 24);
+		this.locationChromosomes = buffer.getInt(p + 28);
+		this.locationStarts = buffer.getInt(p + 32);
+		this.locationEnds = buffer.getInt(p + 36);
+		this.locationStrands = buffer.getInt(p + 40);
+		this.chromosomeLabels = new StringTable(buffer, buffer.getInt(p + 44));
+	}
+
+	/**
+	 * loads the annotations of the given source, by mapping the binary file if it is up to date, otherwise by parsing
+	 * the csv files and writing a new binary file
+	 *
+	 * @param source
+	 *            the directory or zip archive containing the csv files
+	 * @return
+	 * @throws IOException
+	 */
+	public static AnnotationFile load(MappingSource source) throws IOException {
+		File file = source.getAnnotationFile();
+		long fingerprint = source.fingerprint(VERSION, LOCATIONS, CHROMOSOMES);
+		if (file.exists()) {
+			try {
+				AnnotationFile f = map(file, fingerprint);
+				if (f != null)
+					return f;
+				log.info("stale gene annotation file, recreating: " + file);
+			} catch (IOException e) {
+				log.warn("can't read gene annotation file, recreating: " + file, e);
+			}
+		}
+		byte[] data = parse(source, fingerprint);
+		try {
+			write(data, file);
+		} catch (IOException e) {
+			log.warn("can't write gene annotation file: " + file, e);
+		}
+		return new AnnotationFile(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * @return the mapped file or null if it isn't up to date
+	 */
+	private static AnnotationFile map(File file, long fingerprint) throws IOException {
+		try (RandomAccessFile f = new RandomAccessFile(file, "r"); FileChannel channel = f.getChannel()) {
+			if (channel.size() < HEADER_SIZE)
+				return null;
+			// check the header with a plain read, a mapping of a stale file would block replacing it on Windows
+			ByteBuffer header = ByteBuffer.allocate(16);
+			while (header.hasRemaining())
+				if (channel.read(header, header.position()) < 0)
+					return null;
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getLong(8) != fingerprint)
+				return null;
+			return new AnnotationFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	private static void write(byte[] data, File file) throws IOException {
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		Files.write(tmp.toPath(), data);
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static byte[] parse(MappingSource source, long fingerprint) throws IOException {
+		Map<String, Integer> lengths = new HashMap<>();
+		Map<String, String> labels = new HashMap<>();
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(source.open(CHROMOSOMES),
+				StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = r.readLine()) != null) {
+				// id, name, total length
+				String[] l = line.split("\t");
+				Integer length = l.length < 3 ? null : toInt(l[2]);
+				if (length == null) // skips the header, too
+					continue;
+				lengths.put(l[0], length);
+				labels.put(l[0], l[1]);
+			}
+		}
+		List<Record> records = new ArrayList<>();
+		try (BufferedReader r = new BufferedReader(new InputStreamReader(source.open(LOCATIONS),
+				StandardCharsets.UTF_8))) {
+			String line = r.readLine(); // header
+			while ((line = r.readLine()) != null) {
+				// location, gene, chromosome, start, end, strand
+				String[] l = line.split("\t");
+				if (l.length < 5)
+					continue;
+				Integer start = toInt(l[3]);
+				Integer end = toInt(l[4]);
+				records.add(new Record(l[0], l[1], l[2], start == null ? GeneLocationMetaData.UNKNOWN : start,
+						end == null ? GeneLocationMetaData.UNKNOWN : end, l.length > 5 && !l[5].isEmpty() ? (byte) l[5]
+								.charAt(0) : 0));
+			}
+		}
+		return encode(fingerprint, lengths, labels, records);
+	}
+
+	private static Integer toInt(String s) {
+		try {
+			return Integer.valueOf(s.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static byte[] encode(long fingerprint, Map<String, Integer> lengths, Map<String, String> labels,
+			List<Record> records) throws IOException {
+		TreeSet<String> chromosomeSet = new TreeSet<>(lengths.keySet());
+		TreeSet<String> geneSet = new TreeSet<>();
+		for (Record r : records) {
+			chromosomeSet.add(r.chromosome);
+			geneSet.add(r.gene);
+		}
+		final List<String> chromosomes = new ArrayList<>(chromosomeSet);
+		final List<String> genes = new ArrayList<>(geneSet);
+		Collections.sort(records);
+		final int n = records.size();
+
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(n * 64);
+		DataOutputStream out = new DataOutputStream(bout);
+		int[] offsets = new int[12];
+
+		offsets[0] = HEADER_SIZE + out.size();
+		writeStrings(out, chromosomes);
+		offsets[1] = HEADER_SIZE + out.size();
+		for (String c : chromosomes)
+			out.writeInt(lengths.containsKey(c) ? lengths.get(c) : 0);
+		offsets[2] = HEADER_SIZE + out.size();
+		{
+			int c = 0;
+			out.writeInt(0);
+			for (int i = 0; i < n; ++i) {
+				String chromosome = records.get(i).chromosome;
+				while (!chromosomes.get(c).equals(chromosome)) {
+					out.writeInt(i);
+					c++;
+				}
+			}
+			for (; c < chromosomes.size(); ++c)
+				out.writeInt(n);
+		}
+		offsets[3] = HEADER_SIZE + out.size();
+		writeStrings(out, genes);
+		offsets[4] = HEADER_SIZE + out.size();
+		List<String> names = new ArrayList<>(n);
+		for (Record r : records)
+			names.add(r.name);
+		writeStrings(out, names);
+		offsets[5] = HEADER_SIZE + out.size();
+		for (int i : sortedOrder(names))
+			out.writeInt(i);
+		offsets[6] = HEADER_SIZE + out.size();
+		for (Record r : records)
+			out.writeInt(Collections.binarySearch(genes, r.gene));
+		offsets[7] = HEADER_SIZE + out.size();
+		for (Record r : records)
+			out.writeInt(Collections.binarySearch(chromosomes, r.chromosome));
+		offsets[8] = HEADER_SIZE + out.size();
+		for (Record r : records)
+			out.writeInt(r.start);
+		offsets[9] = HEADER_SIZE + out.size();
+		for (Record r : records)
+			out.writeInt(r.end);
+		offsets[10] = HEADER_SIZE + out.size();
+		for (Record r : records)
+			out.writeByte(r.strand);
+		offsets[11] = HEADER_SIZE + out.size();
+		List<String> chromosomeLabels = new ArrayList<>(chromosomes.size());
+		for (String c : chromosomes)
+			chromosomeLabels.add(labels.containsKey(c) ? labels.get(c) : c);
+		writeStrings(out, chromosomeLabels);
+		out.flush();
+
+		ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + bout.size());
+		b.putInt(MAGIC).putInt(VERSION).putLong(fingerprint);
+		b.putInt(chromosomes.size()).putInt(genes.size()).putInt(n);
+		for (int offset : offsets)
+			b.putInt(offset);
+		b.put(bout.toByteArray());
+		return b.array();
+	}
+
+	private static Integer[] sortedOrder(final List<String> names) {
+		Integer[] order = new Integer[names.size()];
+		for (int i = 0; i < order.length; ++i)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return names.get(o1).compareTo(names.get(o2));
+			}
+		});
+		return order;
+	}
+
+	private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+		List<byte[]> encoded = new ArrayList<>(strings.size());
+		out.writeInt(strings.size());
+		int offset = 0;
+		for (String s : strings) {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			encoded.add(b);
+			out.writeInt(offset);
+			offset += b.length;
+		}
+		out.writeInt(offset);
+		for (byte[] b : encoded)
+			out.write(b);
+	}
+
+	public int getChromosomeCount() {
+		return chromosomeCount;
+	}
+
+	public String getChromosome(int chromosome) {
+		return chromosomeNames.get(chromosome);
+	}
+
+	/**
+	 * @param chromosome
+	 * @return the index of the given chromosome or -1 if unknown
+	 */
+	public int indexOfChromosome(String chromosome) {
+		return chromosomeNames.indexOf(chromosome);
+	}
+
+	/**
+	 * @param chromosome
+	 * @return the name of the given chromosome in the chromosome meta data
+	 */
+	public String getChromosomeLabel(int chromosome) {
+		return chromosomeLabels.get(chromosome);
+	}
+
+	public int getChromosomeLength(int chromosome) {
+		return buffer.getInt(chromosomeLengths + chromosome * 4);
+	}
+
+	/**
+	 * @param chromosome
+	 * @return the first location record of the given chromosome, the records of a chromosome are the range up to the
+	 *         first location of the next chromosome
+	 */
+	public int getFirstLocation(int chromosome) {
+		return buffer.getInt(chromosomeFirstLocation + chromosome * 4);
+	}
+
+	public int getGeneCount() {
+		return geneCount;
+	}
+
+	public String getGeneName(int gene) {
+		return geneNames.get(gene);
+	}
+
+	public int getLocationCount() {
+		return locationCount;
+	}
+
+	public String getLocationName(int location) {
+		return locationNames.get(location);
+	}
+
+	/**
+	 * @param name
+	 * @return the location record with the given name or -1 if unknown
+	 */
+	public int indexOfLocation(String name) {
+		int low = 0;
+		int high = locationCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int location = buffer.getInt(locationNameOrder + mid * 4);
+			int c = locationNames.get(location).compareTo(name);
+			if (c < 0)
+				low = mid + 1;
+			else if (c > 0)
+				high = mid - 1;
+			else
+				return location;
+		}
+		return -1;
+	}
+
+	public int getGene(int location) {
+		return buffer.getInt(locationGenes + location * 4);
+	}
+
+	public int getChromosomeOf(int location) {
+		return buffer.getInt(locationChromosomes + location * 4);
+	}
+
+	public int getStart(int location) {
+		return buffer.getInt(locationStarts + location * 4);
+	}
+
+	public int getEnd(int location) {
+		return buffer.getInt(locationEnds + location * 4);
+	}
+
+	public byte getStrand(int location) {
+		return buffer.get(locationStrands + location);
+	}
+
+	/**
+	 * bulk copy of the location starts, ends, and strands of the given record range
+	 */
+	public void copy(int from, int to, int[] starts, int[] ends, byte[] strands) {
+		ByteBuffer b = buffer.duplicate();
+		b.position(locationStarts + from * 4);
+		b.asIntBuffer().get(starts, 0, to - from);
+		b.position(locationEnds + from * 4);
+		b.asIntBuffer().get(ends, 0, to - from);
+		b.position(locationStrands + from);
+		b.get(strands, 0, to - from);
+	}
+
+	private static final class StringTable {
+		private final ByteBuffer buffer;
+		private final int size;
+		private final int offsets;
+		private final int blob;
+
+		public StringTable(ByteBuffer buffer, int offset) {
+			this.buffer = buffer;
+			this.size = buffer.getInt(offset);
+			this.offsets = offset + 4;
+			this.blob = offsets + (size + 1) * 4;
+		}
+
+		public String get(int index) {
+			int from = buffer.getInt(offsets + index * 4);
+			int to = buffer.getInt(offsets + index * 4 + 4);
+			byte[] b = new byte[to - from];
+			ByteBuffer d = buffer.duplicate();
+			d.position(blob + from);
+			d.get(b);
+			return new String(b, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * binary search, requires a sorted table
+		 */
+		public int indexOf(String value) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int c = get(mid).compareTo(value);
+				if (c < 0)
+					low = mid + 1;
+				else if (c > 0)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -1;
+		}
+	}
+
+	private static final class Record implements Comparable<Record> {
+		private final String name;
+		private final String gene;
+		private final String chromosome;
+		private final int start;
+		private final int end;
+		private final byte strand;
+
+		public Record(String name, String gene, String chromosome, int start, int end, byte strand) {
+			this.name = name;
+			this.gene = gene;
+			this.chromosome = chromosome;
+			this.start = start;
+			this.end = end;
+			this.strand = strand;
+		}
+
+		@Override
+		public int compareTo(Record o) {
+			int c = chromosome.compareTo(o.chromosome);
+			if (c != 0)
+				return c;
+			c = Integer.compare(start, o.start);
+			if (c != 0)
+				return c;
+			return name.compareTo(o.name);
+		}
+	}
+}
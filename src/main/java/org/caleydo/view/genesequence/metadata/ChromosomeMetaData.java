@@ -70,11 +70,33 @@ public class ChromosomeMetaData {
 	 */
 	public static String determineDefaultChromosome(List<Integer> data, IDType idType) {
 		IIDTypeMapper<Integer, String> m = getMapper(idType);
+		return mostFrequent(m.applySeq(data));
+	}
+
+	/**
+	 * @param data
+	 * @param idType
+	 * @return the number of the given genes located in each chromosome
+	 */
+	public static Multiset<String> countChromosomes(List<Integer> data, IDType idType) {
+		IIDTypeMapper<Integer, String> m = getMapper(idType);
+		return count(m.applySeq(data));
+	}
+
+	private static Multiset<String> count(Collection<? extends Collection<String>> chromosomes) {
+		Multiset<String> r = HashMultiset.create();
+		for (Collection<String> s : chromosomes)
+			r.addAll(s);
+		return r;
+	}
 
-		Multiset<String> top = HashMultiset.create();
-		Collection<Set<String>> r = m.applySeq(data);
-		for (Set<String> s : r)
-			top.addAll(s);
+	/**
+	 * @param chromosomes
+	 *            the chromosomes of each gene
+	 * @return the chromosome most of the genes are located in
+	 */
+	static String mostFrequent(Collection<? extends Collection<String>> chromosomes) {
+		Multiset<String> top = count(chromosomes);
 		String max = top.iterator().next();
 		int count = top.count(max);
 		for (String key : top.elementSet()) {
@@ -92,7 +114,14 @@ public class ChromosomeMetaData {
 	 * @return the total length of this chromosome or 0 if unknown
 	 */
 	public static int getTotalLength(String chromosome) {
+		AnnotationFile f = GeneLocationMetaData.annotation;
+		if (f != null) { // loaded from the same meta data file
+			int c = chromosome == null ? -1 : f.indexOfChromosome(chromosome);
+			return c < 0 ? 0 : f.getChromosomeLength(c);
+		}
 		ATableBasedDataDomain d = chromoseDataDomain;
+		if (d == null) // not loaded yet
+			return 0;
 		IIDTypeMapper<String, Integer> mapper = d.getRecordIDMappingManager().getIDTypeMapper(
 				ChromosomeMetaData.chromosome,
 				d.getRecordIDType());
@@ -108,6 +137,6 @@ public class ChromosomeMetaData {
 	 * @return
 	 */
 	public static boolean isCompatible(IDType idType) {
-		return chromosome != null && chromosome.getIDCategory().isOfCategory(idType);
+		return chromosome != null && chromosome.getIDCategory().isOfCategory(idType) && MappingLoader.isReady();
 	}
 }
@@ -6,45 +6,104 @@
 package org.caleydo.view.genesequence.metadata;
 
 import gleem.linalg.Vec2f;
-import gleem.linalg.open.Vec2i;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
 
-import org.caleydo.core.id.IDMappingManager;
-import org.caleydo.core.id.IDMappingManagerRegistry;
 import org.caleydo.core.id.IDType;
-import org.caleydo.core.id.IIDTypeMapper;
+import org.caleydo.view.genesequence.internal.util.IntIntHashMap;
 
-import com.google.common.base.Function;
+import com.google.common.collect.Multisets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
+ * maps gene ids to their normalized range within a chromosome or, for {@link GenomeLayout#GENOME}, within all
+ * chromosomes laid out end to end. The ranges of a list of ids are cached per chromosome and can be precomputed in the
+ * background, such that switching the chromosome is just a copy.
+ *
  * @author Samuel Gratzl
  *
  */
-public class Gene2ChromosomeLocation implements Function<Integer, Vec2f> {
-	private final IIDTypeMapper<Integer, Integer> gene2genelocation;
-	private final IIDTypeMapper<Integer, String> genelocation2chromosome;
+public class Gene2ChromosomeLocation implements IRangeFunction {
+	/**
+	 * a single thread, such that the chromosomes are precomputed in the requested order
+	 */
+	private static final ListeningExecutorService PRECOMPUTE = MoreExecutors.listeningDecorator(Executors
+			.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+					.setNameFormat("GeneSequencePrecompute").build()));
+	/**
+	 * the chromosomes explicitly requested by the user, such that they don't queue up behind the background work. A
+	 * single thread, as just the latest request matters and the previous one is cancelled.
+	 */
+	private static final ListeningExecutorService REQUEST = MoreExecutors.listeningDecorator(Executors
+			.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("GeneSequenceRequest")
+					.build()));
+	/**
+	 * number of ids after which a computation checks whether it was cancelled
+	 */
+	private static final int CANCEL_CHECK_INTERVAL = 4096;
 
-	private String chromosome;
-	private int chromosomeTotalLength;
+	private final GeneLocationResolver resolver;
 
-	public Gene2ChromosomeLocation(IDType in, String chromosome) {
-		IDMappingManager mapper = IDMappingManagerRegistry.get().getIDMappingManager(in);
+	private volatile String chromosome;
+	/**
+	 * the lookup state of the last chromosome for resolving single ids
+	 */
+	private volatile Lookup lookup;
+	/**
+	 * the ids of the cached ranges and the ranges per chromosome, guarded by this. Compared by content, such that a
+	 * reordered live list doesn't get the ranges of the previous order.
+	 */
+	private IDSnapshot cachedIds;
+	/**
+	 * the annotations the cached ranges were computed with
+	 */
+	private AnnotationFile cachedFile;
+	private final Map<String, Ranges> cachedRanges = new HashMap<>();
+	/**
+	 * lazily created id to index into {@link #cachedIds}, guarded by this
+	 */
+	private IntIntHashMap cachedIndex;
 
-		IDType geneLocation = GeneLocationMetaData.getGeneLocationIDType();
-		gene2genelocation = mapper.getIDTypeMapper(in, geneLocation);
-		genelocation2chromosome = mapper.getIDTypeMapper(geneLocation, ChromosomeMetaData.chromosome);
+	public Gene2ChromosomeLocation(IDType in, String chromosome) {
+		this(GeneLocationResolver.of(in), chromosome);
+	}
 
+	Gene2ChromosomeLocation(GeneLocationResolver resolver, String chromosome) {
+		this.resolver = resolver;
 		this.chromosome = chromosome;
-		chromosomeTotalLength = ChromosomeMetaData.getTotalLength(chromosome);
 	}
 
+	/**
+	 * switches the chromosome, the ranges are resolved lazily if they weren't precomputed, see
+	 * {@link #precompute(IDSnapshot, IDType, Collection, Runnable)} and {@link #request(IDSnapshot, String, Runnable)}
+	 *
+	 * @param chromosome
+	 */
 	public void setChromosome(String chromosome) {
 		if (Objects.equals(this.chromosome, chromosome))
 			return;
 		this.chromosome = chromosome;
-		this.chromosomeTotalLength = ChromosomeMetaData.getTotalLength(chromosome);
+	}
+
+	/**
+	 * @return whether all chromosomes are shown, see {@link GenomeLayout#GENOME}
+	 */
+	public boolean isGenome() {
+		return GenomeLayout.GENOME.equals(chromosome);
 	}
 
 	/**
@@ -56,36 +115,402 @@ public class Gene2ChromosomeLocation implements Function<Integer, Vec2f> {
 
 	@Override
 	public Vec2f apply(Integer input) {
-		if (chromosomeTotalLength <= 0)
-			return null;
-		Set<Integer> locations = gene2genelocation.apply(input);
-		if (locations == null || locations.isEmpty())
+		if (input == null)
 			return null;
-		Set<String> chromosomes = genelocation2chromosome.apply(locations);
-		if (chromosomes.isEmpty() || !chromosomes.contains(chromosome)) // wrong chromosome
+		String c = chromosome;
+		if (GenomeLayout.GENOME.equals(c)) {
+			float[] r = getCachedRange(input, c);
+			if (r == null) {
+				r = new float[2];
+				applyGenome(resolver, IDSnapshot.of(Collections.singletonList(input)), r);
+			}
+			return Float.isNaN(r[0]) ? null : new Vec2f(r[0], r[1]);
+		}
+		return getLookup(c).apply(input);
+	}
+
+	private Lookup getLookup(String chromosome) {
+		Lookup l = lookup;
+		if (l == null || !Objects.equals(l.chromosome, chromosome))
+			lookup = l = new Lookup(resolver, chromosome);
+		return l;
+	}
+
+	/**
+	 * @param id
+	 * @return the gene symbol and location of the given id on the current chromosome, e.g. for tooltips, or null if
+	 *         it isn't located there
+	 */
+	public String describe(Integer id) {
+		if (id == null)
 			return null;
-		if (locations.size() == 1) { //hit
-			return lookup(locations.iterator().next());
+		String c = chromosome;
+		if (!GenomeLayout.GENOME.equals(c))
+			return getLookup(c).describe(id);
+		// the chromosome of the already computed range, without touching the other ones
+		final GenomeLayout layout = GenomeLayout.get();
+		float[] range = getCachedRange(id, c);
+		if (range != null) {
+			if (Float.isNaN(range[0]))
+				return null;
+			// the chromosome at the center, then its neighbors in case of rounding errors at the boundaries
+			int at = layout.indexAt(range[0] + range[1] * 0.5f);
+			for (int i : new int[] { at, at - 1, at + 1 }) {
+				if (at < 0 || i < 0 || i >= layout.size())
+					continue;
+				Lookup l = getLookup(layout.getChromosome(i));
+				if (l.locationOf(id) >= 0)
+					return l.describe(id);
+			}
 		}
-		// return the first that is in the right chromosome
-		for (Integer loc : locations) {
-			chromosomes = genelocation2chromosome.apply(loc);
-			if (chromosomes != null && chromosomes.contains(this.chromosome))
-				return lookup(loc);
+		// the first chromosome, like in the layout of the genome
+		for (int i = 0; i < layout.size(); ++i) {
+			Lookup l = getLookup(layout.getChromosome(i));
+			if (l.locationOf(id) >= 0)
+				return l.describe(id);
 		}
 		return null;
 	}
 
+	@Override
+	public void applyAll(List<Integer> ids, float[] out) {
+		final String c = chromosome;
+		final IDSnapshot s = IDSnapshot.of(ids);
+		Ranges r = getCached(s, c);
+		if (r == null) {
+			final AnnotationFile f = GeneLocationMetaData.annotation;
+			final boolean ready = resolver.isReady();
+			r = compute(c, s);
+			if (ready) // don't keep the ranges of not yet loaded annotations
+				putCached(s, c, r, f, true);
+		}
+		r.fill(out);
+	}
+
+	/**
+	 * @param ids
+	 * @param chromosome
+	 * @return whether the ranges of the given ids on the given chromosome are already computed
+	 */
+	public boolean isPrecomputed(IDSnapshot ids, String chromosome) {
+		return getCached(ids, chromosome) != null;
+	}
+
 	/**
-	 * @param next
+	 * computes the ranges of the given ids for the given chromosomes in the background, starting with the chromosomes
+	 * most of the ids are located in. Cancelling the future interrupts the current chromosome.
+	 *
+	 * @param ids
+	 * @param idType
+	 * @param chromosomes
+	 * @param onComputed
+	 *            called in the background after each computed chromosome or null
 	 * @return
 	 */
-	private Vec2f lookup(Integer location) {
-		Vec2i loc = GeneLocationMetaData.getLocation(location);
-		if (loc == null)
+	public ListenableFuture<?> precompute(final IDSnapshot ids, final IDType idType,
+			final Collection<String> chromosomes, final Runnable onComputed) {
+		return PRECOMPUTE.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				Set<String> order = new LinkedHashSet<>();
+				for (String c : Multisets.copyHighestCountFirst(ChromosomeMetaData.countChromosomes(ids.asList(), idType))
+						.elementSet())
+					if (chromosomes.contains(c))
+						order.add(c);
+				order.addAll(chromosomes); // the remaining ones, e.g. the whole genome
+				for (String c : order) {
+					if (Thread.currentThread().isInterrupted())
+						break;
+					precompute(ids, c, onComputed);
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * computes the ranges of the given ids for the given chromosome right away, i.e. next to any running
+	 * {@link #precompute(IDSnapshot, IDType, Collection, Runnable)}
+	 *
+	 * @param ids
+	 * @param chromosome
+	 * @param onComputed
+	 *            called in the background once computed or null
+	 * @return
+	 */
+	public ListenableFuture<?> request(final IDSnapshot ids, final String chromosome, final Runnable onComputed) {
+		return REQUEST.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				precompute(ids, chromosome, onComputed);
+				return null;
+			}
+		});
+	}
+
+	private void precompute(IDSnapshot ids, String chromosome, Runnable onComputed) {
+		if (getCached(ids, chromosome) != null)
+			return;
+		final AnnotationFile f = GeneLocationMetaData.annotation;
+		if (!resolver.isReady())
+			return;
+		if (putCached(ids, chromosome, compute(chromosome, ids), f, false) && onComputed != null)
+			onComputed.run();
+	}
+
+	private synchronized Ranges getCached(IDSnapshot ids, String chromosome) {
+		if (cachedIds == null || cachedFile != GeneLocationMetaData.annotation || !cachedIds.equals(ids))
 			return null;
-		// normalize
-		float v = 1.f / chromosomeTotalLength;
-		return new Vec2f(loc.x() * v, (loc.y() - loc.x()) * v);
+		return cachedRanges.get(chromosome);
+	}
+
+	/**
+	 * @param replace
+	 *            whether the given ids replace other cached ones, otherwise the ranges of outdated ids computed in the
+	 *            background are dropped
+	 * @return whether the ranges were cached
+	 */
+	private synchronized boolean putCached(IDSnapshot ids, String chromosome, Ranges r, AnnotationFile file,
+			boolean replace) {
+		if (file != GeneLocationMetaData.annotation) // computed with outdated annotations
+			return false;
+		if (cachedFile != file || cachedIds == null || !cachedIds.equals(ids)) {
+			if (!replace && cachedFile == file && cachedIds != null)
+				return false;
+			cachedFile = file;
+			cachedIds = ids;
+			cachedIndex = null;
+			cachedRanges.clear();
+		}
+		cachedRanges.put(chromosome, r);
+		return true;
+	}
+
+	/**
+	 * @return the cached range of the given id on the given chromosome as (start, length), which is NaN if it isn't
+	 *         located there, or null if not cached
+	 */
+	private synchronized float[] getCachedRange(Integer id, String chromosome) {
+		Ranges r = cachedIds == null ? null : getCached(cachedIds, chromosome);
+		if (r == null)
+			return null;
+		if (cachedIndex == null) {
+			cachedIndex = new IntIntHashMap(cachedIds.size());
+			for (int i = cachedIds.size() - 1; i >= 0; --i) { // the first occurrence wins
+				if (!cachedIds.isNull(i))
+					cachedIndex.put(cachedIds.getInt(i), i);
+			}
+		}
+		int i = cachedIndex.get(id, -1);
+		return i < 0 ? null : r.get(i);
+	}
+
+	/**
+	 * resolves the ranges of the given ids without touching the state of this object, i.e. safe to call in the
+	 * background
+	 *
+	 * @throws CancellationException
+	 *             if the current thread was interrupted
+	 */
+	Ranges compute(String chromosome, IDSnapshot ids) {
+		float[] dense = new float[ids.size() * 2];
+		if (GenomeLayout.GENOME.equals(chromosome))
+			applyGenome(resolver, ids, dense);
+		else
+			new Lookup(resolver, chromosome).applyAll(ids, dense);
+		return Ranges.of(ids.size(), dense);
+	}
+
+	/**
+	 * the gene id to location mapping and the location records of a chromosome
+	 */
+	private static final class Lookup {
+		private final String chromosome;
+		private final int chromosomeTotalLength;
+		/**
+		 * gene id to location record id within the chromosome
+		 */
+		private final IntIntHashMap gene2location;
+		/**
+		 * the decoded location records of the chromosome
+		 */
+		private final GeneLocationMetaData.Shard shard;
+
+		public Lookup(GeneLocationResolver resolver, String chromosome) {
+			this.chromosome = chromosome;
+			this.chromosomeTotalLength = ChromosomeMetaData.getTotalLength(chromosome);
+			this.shard = GeneLocationMetaData.getShard(chromosome);
+			this.gene2location = chromosomeTotalLength <= 0 || shard == null ? null : resolver.get(chromosome);
+		}
+
+		/**
+		 * @return the location record id of the given gene id or -1 if it isn't located on this chromosome
+		 */
+		public int locationOf(Integer input) {
+			return gene2location == null || input == null ? -1 : gene2location.get(input, -1);
+		}
+
+		public Vec2f apply(Integer input) {
+			int location = locationOf(input);
+			if (location < 0)
+				return null;
+			int start = shard.getStart(location);
+			int end = shard.getEnd(location);
+			// normalize
+			float v = 1.f / chromosomeTotalLength;
+			return new Vec2f(start * v, (end - start) * v);
+		}
+
+		public String describe(Integer input) {
+			int location = locationOf(input);
+			if (location < 0)
+				return null;
+			StringBuilder b = new StringBuilder();
+			AnnotationFile f = GeneLocationMetaData.annotation;
+			if (f != null)
+				b.append(f.getGeneName(f.getGene(location))).append(' ');
+			b.append(chromosome).append(':').append(shard.getStart(location)).append('-')
+					.append(shard.getEnd(location));
+			byte strand = shard.getStrand(location);
+			if (strand != 0)
+				b.append(" (").append((char) strand).append(')');
+			return b.toString();
+		}
+
+		public void applyAll(IDSnapshot ids, float[] out) {
+			final int n = ids.size();
+			final IntIntHashMap m = gene2location;
+			final GeneLocationMetaData.Shard s = shard;
+			final float v = 1.f / chromosomeTotalLength;
+			for (int i = 0; i < n; ++i) {
+				checkCancelled(i);
+				int location = m == null || ids.isNull(i) ? -1 : m.get(ids.getInt(i), -1);
+				if (location < 0) {
+					out[i * 2] = Float.NaN;
+					out[i * 2 + 1] = Float.NaN;
+					continue;
+				}
+				int start = s.getStart(location);
+				int end = s.getEnd(location);
+				out[i * 2] = start * v;
+				out[i * 2 + 1] = (end - start) * v;
+			}
+		}
+	}
+
+	/**
+	 * resolves the ids within the whole genome in a single pass over the chromosomes in the order of the
+	 * {@link GenomeLayout}, each just over the ids not found so far, such that a multi-locus gene is placed on its
+	 * first chromosome. The lookup of a chromosome is released before the next one is loaded, such that just the
+	 * resulting ranges are kept.
+	 */
+	private static void applyGenome(GeneLocationResolver resolver, IDSnapshot ids, float[] out) {
+		final GenomeLayout layout = GenomeLayout.get();
+		final int n = ids.size();
+		final double v = 1. / layout.getTotalLength();
+		int[] pending = new int[n];
+		int m = 0;
+		for (int i = 0; i < n; ++i) {
+			out[i * 2] = Float.NaN;
+			out[i * 2 + 1] = Float.NaN;
+			if (!ids.isNull(i))
+				pending[m++] = i;
+		}
+		if (layout.getTotalLength() <= 0)
+			return;
+		for (int c = 0; c < layout.size() && m > 0; ++c) {
+			Lookup l = new Lookup(resolver, layout.getChromosome(c));
+			if (l.gene2location == null || l.gene2location.isEmpty())
+				continue;
+			final long offset = layout.getOffset(c);
+			int k = 0;
+			for (int j = 0; j < m; ++j) {
+				checkCancelled(j);
+				int i = pending[j];
+				int location = l.gene2location.get(ids.getInt(i), -1);
+				if (location < 0) {
+					pending[k++] = i;
+					continue;
+				}
+				int start = l.shard.getStart(location);
+				int end = l.shard.getEnd(location);
+				out[i * 2] = (float) ((offset + start) * v);
+				out[i * 2 + 1] = (float) ((end - start) * v);
+			}
+			m = k;
+		}
+	}
+
+	/**
+	 * @param i
+	 *            the current iteration, the thread is checked just every {@link #CANCEL_CHECK_INTERVAL} iterations
+	 * @throws CancellationException
+	 *             if the current thread was interrupted, e.g. by cancelling its future
+	 */
+	private static void checkCancelled(int i) {
+		if (i % CANCEL_CHECK_INTERVAL == 0 && Thread.currentThread().isInterrupted())
+			throw new CancellationException();
+	}
+
+	/**
+	 * the known ranges of a list of ids on a chromosome, stored sparse as most ids are located elsewhere
+	 */
+	static final class Ranges {
+		private final int size;
+		/**
+		 * index of the id and its start and length at 2i and 2i+1
+		 */
+		private final int[] indices;
+		private final float[] ranges;
+
+		private Ranges(int size, int[] indices, float[] ranges) {
+			this.size = size;
+			this.indices = indices;
+			this.ranges = ranges;
+		}
+
+		static Ranges of(int size, float[] dense) {
+			int k = 0;
+			for (int i = 0; i < size; ++i)
+				if (!Float.isNaN(dense[i * 2]))
+					k++;
+			int[] indices = new int[k];
+			float[] ranges = new float[k * 2];
+			k = 0;
+			for (int i = 0; i < size; ++i) {
+				if (Float.isNaN(dense[i * 2]))
+					continue;
+				indices[k] = i;
+				ranges[k * 2] = dense[i * 2];
+				ranges[k * 2 + 1] = dense[i * 2 + 1];
+				k++;
+			}
+			return new Ranges(size, indices, ranges);
+		}
+
+		/**
+		 * @param index
+		 *            index of the id
+		 * @return the (start, length) of the given id, which is NaN if it isn't located
+		 */
+		float[] get(int index) {
+			int k = Arrays.binarySearch(indices, index);
+			if (k < 0)
+				return new float[] { Float.NaN, Float.NaN };
+			return new float[] { ranges[k * 2], ranges[k * 2 + 1] };
+		}
+
+		/**
+		 * @param out
+		 *            see {@link IRangeFunction#applyAll(List, float[])}
+		 */
+		void fill(float[] out) {
+			Arrays.fill(out, 0, size * 2, Float.NaN);
+			for (int k = 0; k < indices.length; ++k) {
+				int i = indices[k];
+				out[i * 2] = ranges[k * 2];
+				out[i * 2 + 1] = ranges[k * 2 + 1];
+			}
+		}
 	}
 }
@@ -7,38 +7,246 @@ package org.caleydo.view.genesequence.metadata;
 
 import gleem.linalg.open.Vec2i;
 
-import org.caleydo.core.data.datadomain.ATableBasedDataDomain;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.caleydo.core.data.collection.EDataType;
 import org.caleydo.core.id.IDType;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 /**
  *
  * @author Samuel Gratzl
  *
  */
 public class GeneLocationMetaData {
-	static ATableBasedDataDomain locationDataDomain;
+	/**
+	 * marker for an unknown start or end
+	 */
+	public static final int UNKNOWN = Integer.MIN_VALUE;
+
 	public static IDType location;
 
-	public static IDType getGeneLocationIDType() {
-		return locationDataDomain.getRecordIDType();
+	/**
+	 * number of chromosomes, whose location records are kept decoded in memory, can be changed by the system property
+	 * <code>org.caleydo.view.genesequence.cachedChromosomes</code>
+	 */
+	static final int CACHED_CHROMOSOMES = Math.max(1,
+			Integer.getInteger("org.caleydo.view.genesequence.cachedChromosomes", 8));
+
+	static volatile AnnotationFile annotation;
+	/**
+	 * lazily decoded location records per chromosome
+	 */
+	private static volatile Shards shards = new Shards(null);
+	/**
+	 * the integer id type of the location records, registered on first use by {@link #getGeneLocationIDType()}
+	 */
+	private static IDType locationRecord;
+
+	/**
+	 * @return the id type of the location names, see {@link #getLocationRecordID(String)} for their record ids
+	 */
+	public static IDType getLocationIDType() {
+		return location;
+	}
+
+	/**
+	 * @return the integer id type of the location records, which is mapped from the {@link #location} id type and
+	 *         whose ids are accepted by {@link #getLocation(Integer)}, or null if not yet loaded
+	 * @deprecated the location records aren't a data domain anymore, such that the mapping is created on first use,
+	 *             use {@link #getLocationIDType()} and {@link #getLocationRecordID(String)} instead
+	 */
+	@Deprecated
+	public static synchronized IDType getGeneLocationIDType() {
+		if (locationRecord != null)
+			return locationRecord;
+		AnnotationFile f = annotation;
+		if (f == null || location == null)
+			return null;
+		IDType record = IDType.registerInternalType("ChromosomeLocationRecord", location.getIDCategory(),
+				EDataType.INTEGER);
+		Map<String, Integer> map = new HashMap<>(f.getLocationCount() * 4 / 3 + 1);
+		for (int i = 0; i < f.getLocationCount(); ++i)
+			map.put(f.getLocationName(i), i);
+		MappingLoader.registerMapping(location, record, false, map);
+		locationRecord = record;
+		return record;
+	}
+
+	/**
+	 * sets the loaded annotations, whose location records are decoded per chromosome on first use
+	 *
+	 * @param file
+	 */
+	static void setAnnotation(AnnotationFile file) {
+		shards = new Shards(file);
+		annotation = file;
+	}
+
+	/**
+	 * @param chromosome
+	 * @return the decoded location records of the given chromosome or null if unknown
+	 */
+	static Shard getShard(String chromosome) {
+		return shards.of(chromosome);
+	}
+
+	/**
+	 * @param location
+	 *            the name of a location, i.e. an id of the {@link #location} id type
+	 * @return the location record id of the given location or -1 if unknown
+	 */
+	public static int getLocationRecordID(String location) {
+		AnnotationFile f = annotation;
+		return f == null || location == null ? -1 : f.indexOfLocation(location);
+	}
+
+	/**
+	 * @param geneLocationRecordID
+	 * @return whether the start and end of the given location are known
+	 */
+	public static boolean hasLocation(int geneLocationRecordID) {
+		Shard s = shards.of(geneLocationRecordID);
+		return s != null && s.hasLocation(geneLocationRecordID);
+	}
+
+	/**
+	 * @param geneLocationRecordID
+	 * @return the start of the given location or {@link #UNKNOWN}
+	 */
+	public static int getStart(int geneLocationRecordID) {
+		Shard s = shards.of(geneLocationRecordID);
+		return s == null ? UNKNOWN : s.getStart(geneLocationRecordID);
+	}
+
+	/**
+	 * @param geneLocationRecordID
+	 * @return the end of the given location or {@link #UNKNOWN}
+	 */
+	public static int getEnd(int geneLocationRecordID) {
+		Shard s = shards.of(geneLocationRecordID);
+		return s == null ? UNKNOWN : s.getEnd(geneLocationRecordID);
+	}
+
+	/**
+	 * @param geneLocationRecordID
+	 * @return the strand character ('+' or '-') of the given location or 0 if unknown
+	 */
+	public static byte getStrand(int geneLocationRecordID) {
+		Shard s = shards.of(geneLocationRecordID);
+		return s == null ? 0 : s.getStrand(geneLocationRecordID);
+	}
+
+	/**
+	 * bulk version of {@link #getStart(int)} and {@link #getEnd(int)}
+	 *
+	 * @param geneLocationRecordIDs
+	 * @param outStart
+	 *            at least as long as the given ids
+	 * @param outEnd
+	 *            at least as long as the given ids
+	 */
+	public static void fill(int[] geneLocationRecordIDs, int[] outStart, int[] outEnd) {
+		Shards all = shards;
+		Shard s = null;
+		for (int i = 0; i < geneLocationRecordIDs.length; ++i) {
+			int id = geneLocationRecordIDs[i];
+			// ids are usually clustered by chromosome
+			if (s == null || !s.contains(id))
+				s = all.of(id);
+			outStart[i] = s == null ? UNKNOWN : s.getStart(id);
+			outEnd[i] = s == null ? UNKNOWN : s.getEnd(id);
+		}
 	}
 
 	/**
 	 * returns the location of a gene location
 	 *
 	 * @param geneLocationRecordID
-	 *            already the correct record it lookup id
+	 *            already the correct record id, see {@link #getLocationRecordID(String)} or the deprecated
+	 *            {@link #getGeneLocationIDType()}
 	 * @return
 	 */
 	public static Vec2i getLocation(Integer geneLocationRecordID) {
-		ATableBasedDataDomain d = locationDataDomain;
-		Object start = d.getTable().getRaw(0, geneLocationRecordID);
-		Object end = d.getTable().getRaw(1, geneLocationRecordID);
-		if (!(start instanceof Number) || !(end instanceof Number))
+		if (geneLocationRecordID == null || !hasLocation(geneLocationRecordID))
 			return null;
 		Vec2i v = new Vec2i();
-		v.setX(((Number) start).intValue());
-		v.setY(((Number) end).intValue());
+		v.setX(getStart(geneLocationRecordID));
+		v.setY(getEnd(geneLocationRecordID));
 		return v;
 	}
+
+	/**
+	 * the decoded location records of a single chromosome, i.e. the contiguous range of location record ids starting at
+	 * {@link #from}
+	 */
+	static final class Shard {
+		private final int from;
+		private final int[] starts;
+		private final int[] ends;
+		private final byte[] strands;
+
+		Shard(AnnotationFile file, int chromosome) {
+			this.from = file.getFirstLocation(chromosome);
+			int size = file.getFirstLocation(chromosome + 1) - from;
+			this.starts = new int[size];
+			this.ends = new int[size];
+			this.strands = new byte[size];
+			file.copy(from, from + size, starts, ends, strands);
+		}
+
+		public boolean contains(int geneLocationRecordID) {
+			return geneLocationRecordID >= from && geneLocationRecordID - from < starts.length;
+		}
+
+		public boolean hasLocation(int geneLocationRecordID) {
+			return contains(geneLocationRecordID) && starts[geneLocationRecordID - from] != UNKNOWN
+					&& ends[geneLocationRecordID - from] != UNKNOWN;
+		}
+
+		public int getStart(int geneLocationRecordID) {
+			return contains(geneLocationRecordID) ? starts[geneLocationRecordID - from] : UNKNOWN;
+		}
+
+		public int getEnd(int geneLocationRecordID) {
+			return contains(geneLocationRecordID) ? ends[geneLocationRecordID - from] : UNKNOWN;
+		}
+
+		public byte getStrand(int geneLocationRecordID) {
+			return contains(geneLocationRecordID) ? strands[geneLocationRecordID - from] : 0;
+		}
+	}
+
+	/**
+	 * bounded lru cache of the {@link Shard}s of an {@link AnnotationFile}
+	 */
+	private static final class Shards extends CacheLoader<Integer, Shard> {
+		private final AnnotationFile file;
+		private final LoadingCache<Integer, Shard> cache;
+
+		public Shards(AnnotationFile file) {
+			this.file = file;
+			this.cache = CacheBuilder.newBuilder().maximumSize(CACHED_CHROMOSOMES).build(this);
+		}
+
+		@Override
+		public Shard load(Integer chromosome) {
+			return new Shard(file, chromosome);
+		}
+
+		public Shard of(int geneLocationRecordID) {
+			if (file == null || geneLocationRecordID < 0 || geneLocationRecordID >= file.getLocationCount())
+				return null;
+			return cache.getUnchecked(file.getChromosomeOf(geneLocationRecordID));
+		}
+
+		public Shard of(String chromosome) {
+			int c = file == null || chromosome == null ? -1 : file.indexOfChromosome(chromosome);
+			return c < 0 ? null : cache.getUnchecked(c);
+		}
+	}
 }
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.metadata;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.caleydo.core.id.IDMappingManager;
+import org.caleydo.core.id.IDMappingManagerRegistry;
+import org.caleydo.core.id.IDType;
+import org.caleydo.core.id.IIDTypeMapper;
+import org.caleydo.datadomain.genetic.EGeneIDTypes;
+import org.caleydo.view.genesequence.internal.util.IntIntHashMap;
+
+import com.google.common.base.Function;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * precomputed mapping from the ids of a gene {@link IDType} to their gene location record on a chromosome, built
+ * lazily per chromosome and shared among all users of the same {@link IDType}
+ *
+ * @author Samuel Gratzl
+ *
+ */
+final class GeneLocationResolver {
+	private static final ConcurrentMap<IDType, GeneLocationResolver> resolvers = new ConcurrentHashMap<>();
+
+	private final IDType idType;
+	/**
+	 * gene symbol to gene ids or null to use the id mapping of {@link #idType}
+	 */
+	private final Function<String, ? extends Collection<Integer>> symbol2gene;
+	/**
+	 * the mappings of the current annotation file, replaced if another one is loaded
+	 */
+	private volatile Chromosomes chromosomes = new Chromosomes(null);
+
+	private GeneLocationResolver(IDType idType) {
+		this(idType, null);
+	}
+
+	/**
+	 * a resolver using the given mapping instead of the id mapping, e.g. for synthetic data
+	 *
+	 * @param symbol2gene
+	 */
+	GeneLocationResolver(Function<String, ? extends Collection<Integer>> symbol2gene) {
+		this(null, symbol2gene);
+	}
+
+	private GeneLocationResolver(IDType idType, Function<String, ? extends Collection<Integer>> symbol2gene) {
+		this.idType = idType;
+		this.symbol2gene = symbol2gene;
+	}
+
+	/**
+	 * @param idType
+	 * @return the shared resolver for the given gene id type
+	 */
+	public static GeneLocationResolver of(IDType idType) {
+		GeneLocationResolver r = resolvers.get(idType);
+		if (r != null)
+			return r;
+		r = new GeneLocationResolver(idType);
+		GeneLocationResolver old = resolvers.putIfAbsent(idType, r);
+		return old == null ? r : old;
+	}
+
+	/**
+	 * @return whether the annotations and the gene symbol mapping are loaded, otherwise nothing can be resolved yet
+	 */
+	public boolean isReady() {
+		return GeneLocationMetaData.annotation != null && getSymbol2Gene() != null;
+	}
+
+	/**
+	 * @param chromosome
+	 * @return the mapping from gene id to location record id within the given chromosome, empty and not cached if not
+	 *         {@link #isReady()}
+	 */
+	public IntIntHashMap get(String chromosome) {
+		final AnnotationFile f = GeneLocationMetaData.annotation;
+		final Function<String, ? extends Collection<Integer>> symbol2gene = getSymbol2Gene();
+		if (f == null || symbol2gene == null)
+			return new IntIntHashMap();
+		Chromosomes c = chromosomes;
+		if (c.file != f) // another annotation file was loaded
+			chromosomes = c = new Chromosomes(f);
+		return c.cache.getUnchecked(chromosome);
+	}
+
+	private Function<String, ? extends Collection<Integer>> getSymbol2Gene() {
+		return symbol2gene != null ? symbol2gene : getMappedSymbol2Gene();
+	}
+
+	private Function<String, Set<Integer>> getMappedSymbol2Gene() {
+		IDMappingManager mapper = IDMappingManagerRegistry.get().getIDMappingManager(idType);
+		IDType geneSymbol = IDType.getIDType(EGeneIDTypes.GENE_SYMBOL.name());
+		if (mapper == null || geneSymbol == null)
+			return null;
+		final IIDTypeMapper<String, Integer> m = mapper.getIDTypeMapper(geneSymbol, idType);
+		if (m == null)
+			return null;
+		return new Function<String, Set<Integer>>() {
+			@Override
+			public Set<Integer> apply(String input) {
+				return m.apply(input);
+			}
+		};
+	}
+
+	/**
+	 * chromosome to (gene id to location record id) of an {@link AnnotationFile}, bounded like the decoded location
+	 * records
+	 */
+	private final class Chromosomes extends CacheLoader<String, IntIntHashMap> {
+		private final AnnotationFile file;
+		private final LoadingCache<String, IntIntHashMap> cache;
+
+		public Chromosomes(AnnotationFile file) {
+			this.file = file;
+			this.cache = CacheBuilder.newBuilder().maximumSize(GeneLocationMetaData.CACHED_CHROMOSOMES).build(this);
+		}
+
+		@Override
+		public IntIntHashMap load(String chromosome) {
+			int c = file.indexOfChromosome(chromosome);
+			if (c < 0)
+				return new IntIntHashMap();
+			Function<String, ? extends Collection<Integer>> symbol2gene = getSymbol2Gene();
+			if (symbol2gene == null) // unloaded in the meantime, fail instead of caching an empty mapping
+				throw new IllegalStateException("no gene symbol mapping for " + idType);
+
+			final GeneLocationMetaData.Shard shard = GeneLocationMetaData.getShard(chromosome);
+			final int from = file.getFirstLocation(c);
+			final int to = file.getFirstLocation(c + 1);
+			IntIntHashMap r = new IntIntHashMap(to - from);
+			// the records are sorted by start, such that the first location of a multi-locus gene wins
+			for (int location = from; location < to; ++location) {
+				if (!shard.hasLocation(location))
+					continue;
+				Collection<Integer> genes = symbol2gene.apply(file.getGeneName(file.getGene(location)));
+				if (genes == null)
+					continue;
+				for (Integer gene : genes)
+					if (!r.containsKey(gene))
+						r.put(gene, location);
+			}
+			return r;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.metadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * all chromosomes laid out end to end in their natural order, i.e. chr1, chr2, ..., chr22, chrX, chrY, with their
+ * cumulative offsets in base pairs. Built once per loaded meta data and shared.
+ *
+ * @author Samuel Gratzl
+ *
+ */
+public final class GenomeLayout {
+	/**
+	 * the pseudo chromosome, which stands for the whole genome
+	 */
+	public static final String GENOME = "Genome";
+
+	/**
+	 * chromosome names by their number, e.g. chr2 before chr10, the ones without a number afterwards
+	 */
+	static final Comparator<String> NATURAL_ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String o1, String o2) {
+			int n1 = toNumber(o1);
+			int n2 = toNumber(o2);
+			if (n1 != n2)
+				return n1 < n2 ? -1 : 1;
+			return String.CASE_INSENSITIVE_ORDER.compare(o1, o2);
+		}
+
+		private int toNumber(String chromosome) {
+			String s = chromosome.regionMatches(true, 0, "chr", 0, 3) ? chromosome.substring(3) : chromosome;
+			if (s.isEmpty() || s.length() > 9)
+				return Integer.MAX_VALUE;
+			for (int i = 0; i < s.length(); ++i)
+				if (!Character.isDigit(s.charAt(i)))
+					return Integer.MAX_VALUE;
+			return Integer.parseInt(s);
+		}
+	};
+
+	private static volatile GenomeLayout cached;
+
+	/**
+	 * the meta data this layout was built from
+	 */
+	private final Object source;
+	private final String[] chromosomes;
+	/**
+	 * offset of the i-th chromosome, the last entry is the total length
+	 */
+	private final long[] offsets;
+
+	private GenomeLayout(Object source, String[] chromosomes, long[] offsets) {
+		this.source = source;
+		this.chromosomes = chromosomes;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * @return the layout of the currently loaded chromosomes
+	 */
+	public static GenomeLayout get() {
+		Object source = GeneLocationMetaData.annotation;
+		if (source == null)
+			source = ChromosomeMetaData.chromoseDataDomain;
+		GenomeLayout c = cached;
+		if (c != null && c.source == source)
+			return c;
+		c = build(source);
+		cached = c;
+		return c;
+	}
+
+	private static GenomeLayout build(Object source) {
+		List<String> names = new ArrayList<>(ChromosomeMetaData.getChromosomes());
+		Collections.sort(names, NATURAL_ORDER);
+		final int n = names.size();
+		long[] offsets = new long[n + 1];
+		for (int i = 0; i < n; ++i)
+			offsets[i + 1] = offsets[i] + ChromosomeMetaData.getTotalLength(names.get(i));
+		return new GenomeLayout(source, names.toArray(new String[n]), offsets);
+	}
+
+	public int size() {
+		return chromosomes.length;
+	}
+
+	public String getChromosome(int index) {
+		return chromosomes[index];
+	}
+
+	/**
+	 * @param chromosome
+	 * @return the index of the given chromosome or -1 if unknown
+	 */
+	public int indexOf(String chromosome) {
+		for (int i = 0; i < chromosomes.length; ++i)
+			if (chromosomes[i].equals(chromosome))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * @param index
+	 * @return the offset of the given chromosome within the genome in base pairs
+	 */
+	public long getOffset(int index) {
+		return offsets[index];
+	}
+
+	/**
+	 * @return the sum of the lengths of all chromosomes
+	 */
+	public long getTotalLength() {
+		return offsets[chromosomes.length];
+	}
+
+	/**
+	 * @param normalized
+	 *            a position in [0,1] relative to the total length
+	 * @return the index of the chromosome at the given position or -1 if none
+	 */
+	public int indexAt(float normalized) {
+		long pos = (long) (normalized * (double) getTotalLength());
+		int i = Arrays.binarySearch(offsets, pos);
+		if (i < 0)
+			i = -i - 2;
+		// skip empty chromosomes
+		while (i >= 0 && i < chromosomes.length && offsets[i + 1] == offsets[i])
+			i++;
+		return i < 0 || i >= chromosomes.length ? -1 : i;
+	}
+
+	/**
+	 * @return the normalized starts of all but the first chromosome, e.g. to draw their boundaries
+	 */
+	public float[] getBoundaries() {
+		final int n = Math.max(0, chromosomes.length - 1);
+		float[] r = new float[n];
+		double v = 1. / getTotalLength();
+		for (int i = 0; i < n; ++i)
+			r[i] = (float) (offsets[i + 1] * v);
+		return r;
+	}
+}
@@ -8,30 +8,233 @@ package org.caleydo.view.genesequence.metadata;
 import gleem.linalg.Vec2f;
 import gleem.linalg.open.Vec2i;
 
+import java.util.Collections;
+import java.util.List;
+
+import org.caleydo.view.genesequence.internal.util.IntIntHashMap;
+
 import com.google.common.base.Function;
 
 /**
  * @author Christian
  *
  */
-public class ID2ChromosomeLocation implements Function<Integer, Vec2f> {
+public class ID2ChromosomeLocation implements IRangeFunction {
 
+	/**
+	 * either the per id function or the columnar {@link #positionSource}
+	 */
 	protected final Function<Integer, Vec2i> positionFunction;
+	protected final IPositionSource positionSource;
+	protected final String chromosome;
 	protected final int chromosomeTotalLength;
 
+	/**
+	 * the ids of the last bulk request and their normalized ranges, such that repeated requests for the same ids are
+	 * just copies. Compared by content, such that a reordered live list doesn't get the ranges of the previous order.
+	 */
+	private IDSnapshot cachedIds;
+	private float[] cachedRanges;
+	/**
+	 * lazily created id to index into {@link #cachedRanges} for single lookups
+	 */
+	private IntIntHashMap cachedIndex;
+
 	public ID2ChromosomeLocation(String chromosome, Function<Integer, Vec2i> positionFunction) {
 		this.positionFunction = positionFunction;
+		this.positionSource = null;
+		this.chromosome = chromosome;
 		chromosomeTotalLength = ChromosomeMetaData.getTotalLength(chromosome);
 	}
 
+	public ID2ChromosomeLocation(String chromosome, IPositionSource positionSource) {
+		this.positionFunction = null;
+		this.positionSource = positionSource;
+		this.chromosome = chromosome;
+		chromosomeTotalLength = ChromosomeMetaData.getTotalLength(chromosome);
+	}
+
+	/**
+	 * @param chromosome
+	 * @param ids
+	 * @param starts
+	 *            the start of the i-th id at i
+	 * @param ends
+	 *            the end of the i-th id at i
+	 */
+	public ID2ChromosomeLocation(String chromosome, List<Integer> ids, int[] starts, int[] ends) {
+		this(chromosome, new PositionArrays(ids, starts, ends));
+	}
+
 	@Override
 	public Vec2f apply(Integer input) {
-		Vec2i position = positionFunction.apply(input);
-		if (position == null)
+		if (input == null)
+			return null;
+		if (positionFunction != null) {
+			Vec2i position = positionFunction.apply(input);
+			if (position == null)
+				return null;
+			// normalize
+			float v = 1.f / chromosomeTotalLength;
+			return new Vec2f(position.x() * v, (position.y() - position.x()) * v);
+		}
+		int i = lookup(input.intValue());
+		if (i >= 0) {
+			if (Float.isNaN(cachedRanges[i * 2]))
+				return null;
+			return new Vec2f(cachedRanges[i * 2], cachedRanges[i * 2 + 1]);
+		}
+		float[] r = new float[2];
+		applyAll(Collections.singletonList(input), r, false);
+		return Float.isNaN(r[0]) ? null : new Vec2f(r[0], r[1]);
+	}
+
+	/**
+	 * @param id
+	 * @return the absolute location of the given id, e.g. for tooltips, or null if unknown
+	 */
+	public String describe(Integer id) {
+		if (id == null)
+			return null;
+		int start, end;
+		if (positionFunction != null) {
+			Vec2i position = positionFunction.apply(id);
+			if (position == null)
+				return null;
+			start = position.x();
+			end = position.y();
+		} else {
+			int[] starts = new int[1];
+			int[] ends = new int[1];
+			positionSource.fill(Collections.singletonList(id), starts, ends);
+			start = starts[0];
+			end = ends[0];
+		}
+		if (start == IPositionSource.UNKNOWN || end == IPositionSource.UNKNOWN)
 			return null;
-		// normalize
-		float v = 1.f / chromosomeTotalLength;
-		return new Vec2f(position.x() * v, (position.y() - position.x()) * v);
+		return chromosome + ":" + start + "-" + end;
+	}
+
+	private int lookup(int id) {
+		if (cachedRanges == null)
+			return -1;
+		if (cachedIndex == null) {
+			cachedIndex = new IntIntHashMap(cachedIds.size());
+			for (int i = cachedIds.size() - 1; i >= 0; --i) { // the first occurrence wins
+				if (!cachedIds.isNull(i))
+					cachedIndex.put(cachedIds.getInt(i), i);
+			}
+		}
+		return cachedIndex.get(id, -1);
+	}
+
+	@Override
+	public void applyAll(List<Integer> ids, float[] out) {
+		applyAll(ids, out, true);
+	}
+
+	private void applyAll(List<Integer> ids, float[] out, boolean cache) {
+		final IDSnapshot snapshot = cache ? IDSnapshot.of(ids) : null;
+		if (snapshot != null && snapshot.equals(cachedIds)) {
+			System.arraycopy(cachedRanges, 0, out, 0, snapshot.size() * 2);
+			return;
+		}
+		final int n = ids.size();
+		int[] starts = new int[n];
+		int[] ends = new int[n];
+		if (positionSource != null)
+			positionSource.fill(ids, starts, ends);
+		else
+			fill(ids, starts, ends);
+
+		float[] ranges = cache ? new float[n * 2] : out;
+		final float v = 1.f / chromosomeTotalLength;
+		for (int i = 0; i < n; ++i) {
+			if (starts[i] == IPositionSource.UNKNOWN || ends[i] == IPositionSource.UNKNOWN
+					|| chromosomeTotalLength <= 0) {
+				ranges[i * 2] = Float.NaN;
+				ranges[i * 2 + 1] = Float.NaN;
+				continue;
+			}
+			ranges[i * 2] = starts[i] * v;
+			ranges[i * 2 + 1] = (ends[i] - starts[i]) * v;
+		}
+		if (!cache)
+			return;
+		cachedIds = snapshot;
+		cachedRanges = ranges;
+		cachedIndex = null;
+		System.arraycopy(ranges, 0, out, 0, n * 2);
 	}
 
+	private void fill(List<Integer> ids, int[] starts, int[] ends) {
+		for (int i = 0; i < starts.length; ++i) {
+			Integer id = ids.get(i);
+			Vec2i position = id == null ? null : positionFunction.apply(id);
+			starts[i] = position == null ? IPositionSource.UNKNOWN : position.x();
+			ends[i] = position == null ? IPositionSource.UNKNOWN : position.y();
+		}
+	}
+
+	/**
+	 * parallel start and end arrays of a list of ids
+	 */
+	private static final class PositionArrays implements IPositionSource {
+		/**
+		 * the ids at the time the arrays were given, as the list may change afterwards
+		 */
+		private final IDSnapshot ids;
+		private final int[] starts;
+		private final int[] ends;
+		/**
+		 * lazily created id to index for requests of other lists of ids
+		 */
+		private IntIntHashMap index;
+
+		public PositionArrays(List<Integer> ids, int[] starts, int[] ends) {
+			if (starts.length < ids.size() || ends.length < ids.size())
+				throw new IllegalArgumentException("the starts and ends need to be at least as long as the ids");
+			this.ids = IDSnapshot.of(ids);
+			this.starts = starts;
+			this.ends = ends;
+		}
+
+		@Override
+		public void fill(List<Integer> ids, int[] starts, int[] ends) {
+			final int n = ids.size();
+			if (isSame(ids)) {
+				System.arraycopy(this.starts, 0, starts, 0, n);
+				System.arraycopy(this.ends, 0, ends, 0, n);
+				return;
+			}
+			if (index == null) {
+				index = new IntIntHashMap(this.ids.size());
+				for (int i = this.ids.size() - 1; i >= 0; --i) { // the first occurrence wins
+					if (!this.ids.isNull(i))
+						index.put(this.ids.getInt(i), i);
+				}
+			}
+			for (int i = 0; i < n; ++i) {
+				Integer id = ids.get(i);
+				int j = id == null ? -1 : index.get(id, -1);
+				starts[i] = j < 0 ? UNKNOWN : this.starts[j];
+				ends[i] = j < 0 ? UNKNOWN : this.ends[j];
+			}
+		}
+
+		/**
+		 * @return whether the given ids are the ones the arrays were given for in the same order
+		 */
+		private boolean isSame(List<Integer> ids) {
+			if (ids.size() != this.ids.size())
+				return false;
+			int i = 0;
+			for (Integer id : ids) {
+				if (id == null ? !this.ids.isNull(i) : this.ids.isNull(i) || this.ids.getInt(i) != id.intValue())
+					return false;
+				i++;
+			}
+			return true;
+		}
+	}
 }
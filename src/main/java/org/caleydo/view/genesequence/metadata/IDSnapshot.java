@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.metadata;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * an immutable copy of a list of ids, e.g. of a live VirtualArray, which can be used in the background and as cache
+ * key, as it is compared by its content and not by the identity of the list
+ *
+ * @author Samuel Gratzl
+ *
+ */
+public final class IDSnapshot {
+	private final int[] ids;
+	/**
+	 * the indices of null ids or null if there are none
+	 */
+	private final BitSet nulls;
+	private final int hash;
+
+	private IDSnapshot(int[] ids, BitSet nulls) {
+		this.ids = ids;
+		this.nulls = nulls;
+		int h = Arrays.hashCode(ids);
+		this.hash = nulls == null ? h : 31 * h + nulls.hashCode();
+	}
+
+	/**
+	 * @param ids
+	 * @return a snapshot of the current content of the given list
+	 */
+	public static IDSnapshot of(List<Integer> ids) {
+		final int n = ids.size();
+		int[] r = new int[n];
+		BitSet nulls = null;
+		int i = 0;
+		for (Integer id : ids) {
+			if (i == n) // grew while copying
+				break;
+			if (id == null) {
+				if (nulls == null)
+					nulls = new BitSet(n);
+				nulls.set(i);
+			} else
+				r[i] = id.intValue();
+			i++;
+		}
+		if (i < n)
+			r = Arrays.copyOf(r, i);
+		return new IDSnapshot(r, nulls);
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @param index
+	 * @return the id at the given index or null
+	 */
+	public Integer get(int index) {
+		return isNull(index) ? null : Integer.valueOf(ids[index]);
+	}
+
+	/**
+	 * @param index
+	 * @return whether the id at the given index is null, in which case {@link #getInt(int)} is undefined
+	 */
+	public boolean isNull(int index) {
+		return nulls != null && nulls.get(index);
+	}
+
+	/**
+	 * @param index
+	 * @return the primitive id at the given index
+	 */
+	public int getInt(int index) {
+		return ids[index];
+	}
+
+	/**
+	 * @return a read-only view as list
+	 */
+	public List<Integer> asList() {
+		return new View();
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof IDSnapshot))
+			return false;
+		IDSnapshot other = (IDSnapshot) obj;
+		return hash == other.hash && Arrays.equals(ids, other.ids) && Objects.equals(nulls, other.nulls);
+	}
+
+	private final class View extends AbstractList<Integer> implements RandomAccess {
+		@Override
+		public Integer get(int index) {
+			return IDSnapshot.this.get(index);
+		}
+
+		@Override
+		public int size() {
+			return ids.length;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.metadata;
+
+import java.util.List;
+
+/**
+ * columnar alternative to a <code>Function&lt;Integer, Vec2i&gt;</code>, which resolves the absolute chromosome
+ * positions of a whole list of ids at once without boxing or allocating intermediate objects
+ *
+ * @author Samuel Gratzl
+ *
+ */
+public interface IPositionSource {
+	/**
+	 * marker of an unknown position
+	 */
+	int UNKNOWN = Integer.MIN_VALUE;
+
+	/**
+	 * resolves the positions of all given ids
+	 *
+	 * @param ids
+	 * @param starts
+	 *            at least as long as the ids, the start of the i-th id will be stored at i, {@link #UNKNOWN} if
+	 *            unknown
+	 * @param ends
+	 *            the same for the ends
+	 */
+	void fill(List<Integer> ids, int[] starts, int[] ends);
+}
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.metadata;
+
+import gleem.linalg.Vec2f;
+
+import java.util.List;
+
+import com.google.common.base.Function;
+
+/**
+ * a function from an id to its normalized (start, length) range, which can also resolve a whole list of ids at once
+ * without allocating intermediate objects
+ *
+ * @author Samuel Gratzl
+ *
+ */
+public interface IRangeFunction extends Function<Integer, Vec2f> {
+	/**
+	 * resolves the normalized ranges of all given ids
+	 *
+	 * @param ids
+	 * @param out
+	 *            at least twice as long as the ids, the start and length of the i-th id will be stored at 2i and 2i+1,
+	 *            {@link Float#NaN} if unknown
+	 */
+	void applyAll(List<Integer> ids, float[] out);
+}
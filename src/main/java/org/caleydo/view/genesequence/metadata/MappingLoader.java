@@ -8,12 +8,33 @@ package org.caleydo.view.genesequence.metadata;
 import static org.caleydo.view.genesequence.metadata.ChromosomeMetaData.chromoseDataDomain;
 import static org.caleydo.view.genesequence.metadata.ChromosomeMetaData.chromosome;
 import static org.caleydo.view.genesequence.metadata.GeneLocationMetaData.location;
-import static org.caleydo.view.genesequence.metadata.GeneLocationMetaData.locationDataDomain;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.caleydo.core.data.collection.EDataClass;
 import org.caleydo.core.data.collection.EDataType;
@@ -23,9 +44,14 @@ import org.caleydo.core.data.datadomain.DataDomainManager;
 import org.caleydo.core.data.datadomain.IDataDomainInitialization;
 import org.caleydo.core.data.perspective.table.TablePerspective;
 import org.caleydo.core.data.perspective.variable.Perspective;
+import org.caleydo.core.event.EventPublisher;
+import org.caleydo.core.event.data.DataDomainUpdateEvent;
 import org.caleydo.core.id.IDCategory;
+import org.caleydo.core.id.IDMappingManager;
+import org.caleydo.core.id.IDMappingManagerRegistry;
 import org.caleydo.core.id.IDType;
 import org.caleydo.core.id.IDTypeInitializer;
+import org.caleydo.core.id.MappingType;
 import org.caleydo.core.io.ColumnDescription;
 import org.caleydo.core.io.DataDescription;
 import org.caleydo.core.io.DataSetDescription;
@@ -42,6 +68,11 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * @author Samuel Gratzl
  *
@@ -49,45 +80,300 @@ import org.eclipse.jface.operation.IRunnableWithProgress;
 public class MappingLoader implements IDataDomainInitialization, IRunnableWithProgress {
 	private static final String URL_PATTERN = GeneralManager.DATA_URL_PREFIX + "mappings/%s_sequence.zip";
 	private static final Logger log = Logger.create(MappingLoader.class);
+	/**
+	 * whether the mappings and meta data should be loaded in a background thread, can be disabled by setting the
+	 * system property <code>org.caleydo.view.genesequence.loadInBackground</code> to false
+	 */
+	private static final boolean LOAD_IN_BACKGROUND = !"false".equalsIgnoreCase(System
+			.getProperty("org.caleydo.view.genesequence.loadInBackground"));
+	/**
+	 * whether the entries of the downloaded zip archive should be parsed directly instead of extracting it first, can
+	 * be enabled by setting the system property <code>org.caleydo.view.genesequence.streamFromZip</code> to true. The
+	 * entries are just streamed into the {@link AnnotationFile}, the Caleydo parsers read files derived from it
+	 */
+	private static final boolean STREAM_FROM_ZIP = Boolean.getBoolean("org.caleydo.view.genesequence.streamFromZip");
+	/**
+	 * local directory (or zip archive) containing the mapping files, which is used instead of downloading them, e.g.
+	 * for testing with synthetic data, see the system property <code>org.caleydo.view.genesequence.mappingDirectory</code>
+	 */
+	private static final String LOCAL_MAPPINGS = System.getProperty("org.caleydo.view.genesequence.mappingDirectory");
+	/**
+	 * file written as last step of extracting the zip archive, containing the size and date of the archive
+	 */
+	private static final String COMPLETE_MARKER = ".complete";
+	/**
+	 * number of threads for deriving the mappings and meta data from the annotation file in parallel
+	 */
+	private static final int LOADER_THREADS = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors()));
+	/**
+	 * guards the global id mappings and data domains while loading in parallel, the steps build their mappings
+	 * concurrently and hold it just for registering them
+	 */
+	private static final Object REGISTRATION = new Object();
 	private static boolean isAlreadyInitialized = false;
+	/**
+	 * runs a listener in the thread completing the future, i.e. the loader thread
+	 */
+	private static final Executor SAME_THREAD = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+	/**
+	 * future whether the mappings and meta data were loaded successfully
+	 */
+	private static volatile ListenableFuture<Boolean> ready = Futures.immediateFuture(Boolean.FALSE);
 
 	@Override
 	public void createIDTypesAndMapping() {
 		if (isAlreadyInitialized)
 			return;
 
-		if (loadMapping())
-			isAlreadyInitialized = true;
-	}
-
-	private static boolean loadMapping() {
-		File base = prepareFile(new NullProgressMonitor());
-		if (base == null)
-			return true;
-
 		final IDType geneSymbol = IDType.getIDType(EGeneIDTypes.GENE_SYMBOL.name());
 		if (geneSymbol == null) // other not initialized
-			return false;
+			return;
+		isAlreadyInitialized = true;
 
-		// register new id types
+		// register new id types right away
 		final IDCategory cat = geneSymbol.getIDCategory();
 		chromosome = IDType.registerType("Chromosome", cat, EDataType.STRING);
 		location = IDType.registerType("ChromosomeLocation", cat, EDataType.STRING);
 
-		// load mappings
-		IDMappingParser.loadMapping(toFile(base, "gene.genome.gaf.gene2loc.csv"), 1, -1, geneSymbol, location,
-				"\t", cat, true, true, false, null, null);
-		IDMappingParser.loadMapping(toFile(base, "gene.genome.gaf.loc2chr.csv"), 1, -1, location, chromosome, "\t",
-				cat, true, true, false, null, null);
+		// the mappings and the data domain are registered from the loader threads instead of the calling one, which
+		// returns right away. That's the way Caleydo itself loads data: the import and the project loading register
+		// their data domains and id mappings from the forked thread of an IRunnableWithProgress, not the UI thread.
+		// The registrations of this loader are serialized by REGISTRATION, and the views don't use the mappings before
+		// isReady(), respectively the update event of onReady(), which their listeners handle in their own threads.
+		if (LOAD_IN_BACKGROUND) {
+			ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true)
+					.setNameFormat("GeneSequenceMappingLoader").build());
+			ready = MoreExecutors.listeningDecorator(executor).submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return loadMappingSafe(geneSymbol);
+				}
+			});
+			executor.shutdown();
+		} else {
+			ready = Futures.immediateFuture(loadMappingSafe(geneSymbol));
+		}
+		ready.addListener(new Runnable() {
+			@Override
+			public void run() {
+				onReady();
+			}
+		}, SAME_THREAD);
+	}
+
+	/**
+	 * notifies the views as soon as the mappings and meta data are loaded, such that they query the factories again,
+	 * which reject gene id types until then. The chromosome data domain is registered before the annotations are set,
+	 * so its new data domain event comes too early.
+	 */
+	private static void onReady() {
+		ATableBasedDataDomain d = chromoseDataDomain;
+		if (!isReady() || d == null)
+			return;
+		EventPublisher.trigger(new DataDomainUpdateEvent(d));
+	}
+
+	private static boolean loadMappingSafe(IDType geneSymbol) {
+		try {
+			return loadMapping(geneSymbol);
+		} catch (RuntimeException e) {
+			log.error("Failed to load the gene sequence mappings", e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return a future whether the mappings and meta data were loaded successfully
+	 */
+	public static ListenableFuture<Boolean> getReady() {
+		return ready;
+	}
+
+	/**
+	 * @return whether the mappings and meta data are loaded and ready to use
+	 */
+	public static boolean isReady() {
+		ListenableFuture<Boolean> f = ready;
+		return f.isDone() && Boolean.TRUE.equals(Futures.getUnchecked(f));
+	}
+
+	private static boolean loadMapping(final IDType geneSymbol) {
+		final MappingSource base = prepareFile(new NullProgressMonitor());
+		if (base == null)
+			return false;
+
+		final AnnotationFile annotation;
+		try {
+			annotation = AnnotationFile.load(base);
+		} catch (IOException e) {
+			log.error("Failed to load the gene annotations of " + base, e);
+			return false;
+		}
+		// the id types are already registered, such that all steps are independent of each other and just depend on
+		// the annotation file
+		ExecutorService executor = Executors.newFixedThreadPool(LOADER_THREADS, new ThreadFactoryBuilder()
+				.setDaemon(true).setNameFormat("GeneSequenceMappingLoader-%d").build());
+		try {
+			// register the mappings from the annotations instead of parsing their csv files
+			Future<Void> gene2loc = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					registerMapping(geneSymbol, location, true, gene2locations(annotation));
+					return null;
+				}
+			});
+			Future<Void> loc2chr = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					registerMapping(location, chromosome, true, location2chromosomes(annotation));
+					return null;
+				}
+			});
+			// load not just the mapping but also the data domain with the meta data, whose table is derived from the
+			// annotations, too
+			Future<ATableBasedDataDomain> chromosomeData = executor.submit(new Callable<ATableBasedDataDomain>() {
+				@Override
+				public ATableBasedDataDomain call() throws IOException {
+					File table = writeChromosomeTable(base, annotation);
+					ATableBasedDataDomain d = loadData(createChromosomeDataDesc(chromosome, table));
+					fixLabels(d, "Chromosome Name", "Chromosome Total Length");
+					return d;
+				}
+			});
+
+			List<Throwable> errors = new ArrayList<>();
+			await(gene2loc, errors);
+			await(loc2chr, errors);
+			chromoseDataDomain = await(chromosomeData, errors);
+			GeneLocationMetaData.setAnnotation(annotation);
+			if (errors.isEmpty())
+				return true;
+			IllegalStateException e = new IllegalStateException(errors.size()
+					+ " step(s) failed while loading the gene sequence mappings of " + base);
+			for (Throwable error : errors)
+				e.addSuppressed(error);
+			log.error(e.getMessage(), e);
+			return false;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * registers the given entries as mapping between the given id types, the same way the {@link IDMappingParser} does,
+	 * i.e. fills the map of the mapping type and creates its reverse map. The entries are built by the caller
+	 * beforehand, such that just the registration itself is serialized.
+	 *
+	 * @param entries
+	 *            the mapped ids, in case of a multi map a set of ids per id
+	 */
+	static <K, V> void registerMapping(IDType from, IDType to, boolean isMultiMap, Map<K, V> entries) {
+		synchronized (REGISTRATION) {
+			IDMappingManager m = IDMappingManagerRegistry.get().getIDMappingManager(from.getIDCategory());
+			MappingType type = m.createMap(from, to, isMultiMap, true);
+			Map<K, V> map = m.getMap(type);
+			map.putAll(entries);
+			m.createReverseMap(type);
+		}
+	}
+
+	/**
+	 * @return the locations of each gene of the given annotations
+	 */
+	private static Map<String, Set<String>> gene2locations(AnnotationFile f) {
+		String[] genes = new String[f.getGeneCount()];
+		for (int i = 0; i < genes.length; ++i)
+			genes[i] = f.getGeneName(i);
+		Map<String, Set<String>> r = new HashMap<>(genes.length * 4 / 3 + 1);
+		for (int i = 0; i < f.getLocationCount(); ++i) {
+			String gene = genes[f.getGene(i)];
+			if (gene.isEmpty())
+				continue;
+			Set<String> locations = r.get(gene);
+			if (locations == null) {
+				locations = new HashSet<>(2);
+				r.put(gene, locations);
+			}
+			locations.add(f.getLocationName(i));
+		}
+		return r;
+	}
 
-		// load meta data
-		// load not just the mapping but also the data domain with the meta data
-		chromoseDataDomain = loadData(createChromosomeDataDesc(chromosome, base));
-		fixLabels(chromoseDataDomain, "Chromosome Name", "Chromosome Total Length");
-		locationDataDomain = loadData(createLocationDataDesc(location, base));
-		fixLabels(locationDataDomain, "Chromosome Location (Start)", "Chromosome Location (End)",
-				"Chromosome Location (Strand)");
-		return true;
+	/**
+	 * @return the chromosome of each location of the given annotations
+	 */
+	private static Map<String, Set<String>> location2chromosomes(AnnotationFile f) {
+		Map<String, Set<String>> r = new HashMap<>(f.getLocationCount() * 4 / 3 + 1);
+		for (int c = 0; c < f.getChromosomeCount(); ++c) {
+			// the records of a chromosome are a contiguous range
+			Set<String> chromosome = Collections.singleton(f.getChromosome(c));
+			for (int i = f.getFirstLocation(c); i < f.getFirstLocation(c + 1); ++i) {
+				String location = f.getLocationName(i);
+				Set<String> existing = r.put(location, chromosome);
+				if (existing != null && !existing.equals(chromosome)) { // a location name in several chromosomes
+					Set<String> merged = new HashSet<>(existing);
+					merged.addAll(chromosome);
+					r.put(location, merged);
+				}
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * writes the chromosome table of the given annotations in the format of the {@link AnnotationFile#CHROMOSOMES} next
+	 * to the annotation file, unless it is already up to date, such that the table loader doesn't need the csv file of
+	 * the source
+	 *
+	 * @return the written table
+	 */
+	private static File writeChromosomeTable(MappingSource base, AnnotationFile f) throws IOException {
+		StringBuilder b = new StringBuilder("Chromosome\tName\tLength\n");
+		for (int c = 0; c < f.getChromosomeCount(); ++c) {
+			b.append(f.getChromosome(c)).append('\t').append(f.getChromosomeLabel(c)).append('\t');
+			b.append(f.getChromosomeLength(c)).append('\n');
+		}
+		byte[] data = b.toString().getBytes(StandardCharsets.UTF_8);
+
+		File annotationFile = base.getAnnotationFile();
+		File table = new File(annotationFile.getParentFile(), annotationFile.getName() + ".chromosomes.csv");
+		try {
+			if (table.isFile() && Arrays.equals(data, Files.readAllBytes(table.toPath())))
+				return table;
+			File tmp = new File(table.getParentFile(), table.getName() + ".tmp");
+			Files.write(tmp.toPath(), data);
+			Files.move(tmp.toPath(), table.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return table;
+		} catch (IOException e) {
+			log.warn("can't write the chromosome table: " + table, e);
+		}
+		// e.g. read-only directory, use a temporary file for this session
+		table = File.createTempFile("chromosomeMetaData.", ".csv");
+		table.deleteOnExit();
+		Files.write(table.toPath(), data);
+		return table;
+	}
+
+	/**
+	 * waits for the given step and collects its error
+	 *
+	 * @return the result of the step or null if it failed
+	 */
+	private static <T> T await(Future<T> step, List<Throwable> errors) {
+		try {
+			return step.get();
+		} catch (ExecutionException e) {
+			errors.add(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			errors.add(e);
+		}
+		return null;
 	}
 
 	/**
@@ -96,17 +382,21 @@ public class MappingLoader implements IDataDomainInitialization, IRunnableWithPr
 	 * @return
 	 */
 	private static ATableBasedDataDomain loadData(DataSetDescription d) {
-		d = IDTypeInitializer.initIDs(d);
 		GeneMetaDataDataDomain dataDomain = new GeneMetaDataDataDomain();
-		dataDomain.setDataSetDescription(d);
-		dataDomain.init();
-		DataDomainManager.get().register(dataDomain);
-		try {
-			// the place the matrix is stored:
-			TableUtils.loadData(dataDomain, d, true, true);
-		} catch (Exception e) {
-			log.error("Failed to load data for dataset " + d.getDataSetName(), e);
-			DataDomainManager.get().unregister(dataDomain);
+		// loading the table registers the id mappings of the data domain while parsing, so it has to hold the lock,
+		// which is fine as the table derived from the annotation file is just a line per chromosome
+		synchronized (REGISTRATION) {
+			d = IDTypeInitializer.initIDs(d);
+			dataDomain.setDataSetDescription(d);
+			dataDomain.init();
+			DataDomainManager.get().register(dataDomain);
+			try {
+				// the place the matrix is stored:
+				TableUtils.loadData(dataDomain, d, true, true);
+			} catch (Exception e) {
+				log.error("Failed to load data for dataset " + d.getDataSetName(), e);
+				DataDomainManager.get().unregister(dataDomain);
+			}
 		}
 		return dataDomain;
 	}
@@ -131,14 +421,14 @@ public class MappingLoader implements IDataDomainInitialization, IRunnableWithPr
 
 	/**
 	 * @param chromosome
-	 * @param base
+	 * @param table
 	 * @return
 	 */
-	private static DataSetDescription createChromosomeDataDesc(IDType chromosome, File base) {
+	private static DataSetDescription createChromosomeDataDesc(IDType chromosome, File table) {
 		DataSetDescription d = new DataSetDescription();
 		d.setDataSetName("Chromosome_MetaData");
 		d.setColor(Color.NEUTRAL_GREY);
-		d.setDataSourcePath(toFile(base, "chromosomeMetaData.csv"));
+		d.setDataSourcePath(table.getAbsolutePath());
 		d.setTransposeMatrix(false);
 		d.setDataDescription(null);
 		d.setRowIDSpecification(new IDSpecification(chromosome.getIDCategory().getCategoryName(), chromosome
@@ -156,39 +446,9 @@ public class MappingLoader implements IDataDomainInitialization, IRunnableWithPr
 		return d;
 	}
 
-	/**
-	 * @param location
-	 * @param base
-	 * @return
-	 */
-	private static DataSetDescription createLocationDataDesc(IDType location, File base) {
-		DataSetDescription d = new DataSetDescription();
-		d.setDataSetName("GeneChromosomeLocation_MetaData");
-		d.setColor(Color.NEUTRAL_GREY);
-		d.setDataSourcePath(toFile(base, "gene.genome.gaf.csv"));
-		d.setTransposeMatrix(false);
-		d.setDataDescription(null);
-		d.setRowIDSpecification(new IDSpecification(location.getIDCategory().getCategoryName(), location.getTypeName()));
-
-		{
-			IDCategory idCategory = IDCategory.registerInternalCategory("GeneChromosomeLocation_MetaData_column");
-			IDType.registerInternalType("GeneChromosomeLocation_MetaData_column", idCategory, EDataType.STRING);
-			d.setColumnIDSpecification(new IDSpecification("GeneChromosomeLocation_MetaData_column",
-					"GeneChromosomeLocation_MetaData_column"));
-		}
-		d.setContainsColumnIDs(false);
-		d.addParsingPattern(new ColumnDescription(3, new DataDescription(EDataClass.NATURAL_NUMBER, EDataType.INTEGER)));
-		d.addParsingPattern(new ColumnDescription(4, new DataDescription(EDataClass.NATURAL_NUMBER, EDataType.INTEGER)));
-		d.addParsingPattern(new ColumnDescription(5, new DataDescription(EDataClass.CATEGORICAL, EDataType.STRING)));
-
-		return d;
-	}
-
-	private static String toFile(File base, String string) {
-		return new File(base, string).getAbsolutePath();
-	}
-
-	private static File prepareFile(IProgressMonitor monitor) {
+	private static MappingSource prepareFile(IProgressMonitor monitor) {
+		if (LOCAL_MAPPINGS != null)
+			return prepareLocalFile(new File(LOCAL_MAPPINGS));
 		URL url = null;
 		try {
 			url = new URL(String.format(URL_PATTERN, GeneticMetaData.getOrganism().name().toLowerCase()));
@@ -199,18 +459,76 @@ public class MappingLoader implements IDataDomainInitialization, IRunnableWithPr
 				log.error("can't download: " + url);
 				return null;
 			}
+			if (STREAM_FROM_ZIP)
+				return MappingSource.zip(localZip);
 			File unpacked = new File(localZip.getParentFile(), localZip.getName().replaceAll("\\.zip", ""));
-			if (unpacked.exists())
-				return unpacked;
-			ZipUtils.unzipToDirectory(localZip.getAbsolutePath(), unpacked.getAbsolutePath());
-			return unpacked;
+			return MappingSource.directory(unzip(localZip, unpacked));
 		} catch (MalformedURLException e) {
 			log.error("can't download: " + url);
 			return null;
+		} catch (IOException e) {
+			log.error("can't read: " + url, e);
+			return null;
 		}
 
 	}
 
+	private static MappingSource prepareLocalFile(File local) {
+		if (local.isDirectory())
+			return MappingSource.directory(local);
+		try {
+			if (local.isFile())
+				return MappingSource.zip(local);
+		} catch (IOException e) {
+			log.error("can't read: " + local, e);
+			return null;
+		}
+		log.error("mapping directory doesn't exist: " + local);
+		return null;
+	}
+
+	/**
+	 * extracts the given zip archive into a temporary sibling directory and moves it to its final place when complete,
+	 * such that a half extracted directory is never used
+	 *
+	 * @return the extracted directory
+	 */
+	private static synchronized File unzip(File zip, File unpacked) throws IOException {
+		String stamp = zip.length() + " " + zip.lastModified();
+		File marker = new File(unpacked, COMPLETE_MARKER);
+		if (marker.exists() && stamp.equals(new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8)))
+			return unpacked;
+		if (unpacked.exists()) {
+			log.info("incomplete or outdated extracted mapping data, extracting again: " + unpacked);
+			delete(unpacked.toPath());
+		}
+		File tmp = new File(unpacked.getParentFile(), unpacked.getName() + ".tmp");
+		if (tmp.exists())
+			delete(tmp.toPath());
+		ZipUtils.unzipToDirectory(zip.getAbsolutePath(), tmp.getAbsolutePath());
+		Files.write(new File(tmp, COMPLETE_MARKER).toPath(), stamp.getBytes(StandardCharsets.UTF_8));
+		Files.move(tmp.toPath(), unpacked.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		return unpacked;
+	}
+
+	private static void delete(Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				if (exc != null)
+					throw exc;
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
 	@Override
 	public void run(IProgressMonitor monitor) throws InvocationTargetException, InterruptedException {
 		// loading zip and extracting it during initialization
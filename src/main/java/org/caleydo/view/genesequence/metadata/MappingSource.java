@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.metadata;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * the source of the mapping files, either an extracted directory or the downloaded zip archive itself, whose entries
+ * are read without extracting them. Each file may also be stored gzip compressed with an additional
+ * <code>.gz</code> suffix. The files are just read as streams when the {@link AnnotationFile} is created, which is
+ * cached next to the source, such that neither zip entries nor compressed files are handed to the parsers of Caleydo
+ * and nothing is decompressed again on later starts.
+ *
+ * @author Samuel Gratzl
+ *
+ */
+final class MappingSource {
+	private static final String GZ = ".gz";
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final File file;
+	/**
+	 * file name to zip entry name or null for a directory
+	 */
+	private final Map<String, String> entries;
+
+	private MappingSource(File file, Map<String, String> entries) {
+		this.file = file;
+		this.entries = entries;
+	}
+
+	/**
+	 * @param dir
+	 * @return a source reading the files of the given directory
+	 */
+	public static MappingSource directory(File dir) {
+		return new MappingSource(dir, null);
+	}
+
+	/**
+	 * @param zip
+	 * @return a source streaming the entries of the given zip archive
+	 * @throws IOException
+	 */
+	public static MappingSource zip(File zip) throws IOException {
+		Map<String, String> entries = new HashMap<>();
+		try (ZipFile f = new ZipFile(zip)) {
+			for (Enumeration<? extends ZipEntry> it = f.entries(); it.hasMoreElements();) {
+				ZipEntry entry = it.nextElement();
+				if (entry.isDirectory())
+					continue;
+				String name = entry.getName();
+				entries.put(name.substring(name.lastIndexOf('/') + 1), name);
+			}
+		}
+		return new MappingSource(zip, Collections.unmodifiableMap(entries));
+	}
+
+	/**
+	 * @return whether the entries are streamed from a zip archive
+	 */
+	public boolean isZip() {
+		return entries != null;
+	}
+
+	/**
+	 * @param name
+	 * @return a new stream of the given file, decompressed if needed
+	 * @throws IOException
+	 */
+	public InputStream open(String name) throws IOException {
+		String actual = resolve(name);
+		InputStream in = openRaw(actual);
+		if (!actual.endsWith(GZ))
+			return in;
+		try {
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	private InputStream openRaw(String name) throws IOException {
+		if (!isZip())
+			return new BufferedInputStream(new FileInputStream(new File(file, name)), BUFFER_SIZE);
+		final ZipFile zip = new ZipFile(file);
+		try {
+			ZipEntry entry = zip.getEntry(toEntry(name));
+			if (entry == null)
+				throw new FileNotFoundException(name + " in " + file);
+			return new FilterInputStream(zip.getInputStream(entry)) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						zip.close();
+					}
+				}
+			};
+		} catch (IOException | RuntimeException e) {
+			zip.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param seed
+	 * @param names
+	 * @return a fingerprint of the given files, which changes if one of them changes
+	 * @throws IOException
+	 */
+	public long fingerprint(long seed, String... names) throws IOException {
+		long r = seed;
+		if (!isZip()) {
+			for (String name : names) {
+				File source = new File(file, resolve(name));
+				r = r * 31 + source.length();
+				r = r * 31 + source.lastModified();
+			}
+			return r;
+		}
+		try (ZipFile zip = new ZipFile(file)) {
+			for (String name : names) {
+				ZipEntry entry = zip.getEntry(toEntry(resolve(name)));
+				r = r * 31 + (entry == null ? 0 : entry.getSize());
+				r = r * 31 + (entry == null ? 0 : entry.getCrc());
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * @return the file of the binary annotations belonging to this source, the same for the zip and its extracted
+	 *         directory
+	 */
+	public File getAnnotationFile() {
+		String name = file.getName();
+		if (isZip())
+			name = name.replaceAll("\\.zip$", "");
+		return new File(file.getParentFile(), name + ".annotation");
+	}
+
+	/**
+	 * @return the name of the plain file if it exists, otherwise the one of the compressed version if that exists
+	 */
+	private String resolve(String name) {
+		if (exists(name) || !exists(name + GZ))
+			return name;
+		return name + GZ;
+	}
+
+	private boolean exists(String name) {
+		return isZip() ? entries.containsKey(name) : new File(file, name).exists();
+	}
+
+	private String toEntry(String name) {
+		String entry = entries.get(name);
+		return entry == null ? name : entry;
+	}
+
+	@Override
+	public String toString() {
+		return file.toString();
+	}
+}
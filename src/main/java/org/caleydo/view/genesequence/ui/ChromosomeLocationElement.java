@@ -7,8 +7,17 @@ package org.caleydo.view.genesequence.ui;
 
 import gleem.linalg.Vec2f;
 
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.caleydo.core.data.collection.EDimension;
@@ -23,6 +32,7 @@ import org.caleydo.core.view.opengl.layout2.PickableGLElement;
 import org.caleydo.core.view.opengl.layout2.manage.GLElementDimensionDesc;
 import org.caleydo.core.view.opengl.layout2.manage.GLLocation;
 import org.caleydo.core.view.opengl.picking.Pick;
+import org.caleydo.view.genesequence.metadata.IRangeFunction;
 
 import com.google.common.base.Function;
 
@@ -32,6 +42,23 @@ import com.google.common.base.Function;
  */
 public class ChromosomeLocationElement extends PickableGLElement implements
 		MultiSelectionManagerMixin.ISelectionMixinCallback, GLLocation.ILocator {
+	/**
+	 * default number of items per pixel, above which the level of detail rendering is used
+	 */
+	public static final float DEFAULT_LOD_THRESHOLD = 2;
+	/**
+	 * size of a lane in the stacked mode in pixels including a gap of one pixel, which is dropped if not all lanes fit
+	 */
+	public static final float LANE_SIZE = 5;
+	private static final float STACKED_PADDING = 2;
+	/**
+	 * number of lane packings kept, e.g. one per recently shown chromosome
+	 */
+	private static final int CACHED_PACKINGS = 8;
+	/**
+	 * maximal number of items listed in a tooltip
+	 */
+	private static final int MAX_TOOLTIP_ITEMS = 10;
 
 	@DeepScan
 	private final MultiSelectionManagerMixin selections = new MultiSelectionManagerMixin(this);
@@ -43,8 +70,109 @@ public class ChromosomeLocationElement extends PickableGLElement implements
 	 */
 	private final Function<Integer, Vec2f> id2range;
 
+	/**
+	 * normalized positions of separators to draw, e.g. the chromosome boundaries within the whole genome, or null
+	 */
+	private float[] boundaries;
+
 	private float start = Float.NaN;
 	private float end = Float.NaN;
+	/**
+	 * the range, whose items are currently selected by this element, used for computing incremental selection updates
+	 */
+	private float selectedFrom = Float.NaN;
+	private float selectedTo = Float.NaN;
+	/**
+	 * whether selection events should be delayed and fired at most once per frame
+	 */
+	private boolean coalesceSelectionEvents = false;
+	private boolean selectionEventPending = false;
+
+	/**
+	 * cached normalized start and length of the data items, valid only if the corresponding bit in {@link #valid} is
+	 * set, resolved once via {@link #id2range}
+	 */
+	private float[] starts;
+	private float[] lengths;
+	private final BitSet valid = new BitSet();
+	private int validCount;
+	/**
+	 * whether the ids of {@link #data} changed in place since the locations were resolved, see
+	 * {@link #onDataChanged()}
+	 */
+	private boolean dataChanged = false;
+	/**
+	 * lazily created index of the {@link #id2range} intervals for fast range queries
+	 */
+	private IntervalIndex index;
+	/**
+	 * lazily created coverage histogram of the {@link #id2range} intervals for the level of detail rendering
+	 */
+	private CoverageHistogram histogram;
+
+	/**
+	 * provides the tooltip text of a hovered item or null if the items have no tooltips, shouldn't be combined with
+	 * a static {@link #setTooltip(String)}, as hovering hides it
+	 */
+	private Function<? super Integer, String> itemTooltip;
+	/**
+	 * the ids of the currently hovered items
+	 */
+	private Set<Integer> hovered = Collections.emptySet();
+
+	/**
+	 * whether overlapping items are stacked into lanes instead of drawn into the same band
+	 */
+	private boolean stacked = false;
+	/**
+	 * the lanes of the items in the stacked mode
+	 */
+	private LanePacking lanes;
+	/**
+	 * recently used lane packings by the fingerprint of their locations
+	 */
+	private final Map<Long, LanePacking> packings = new LinkedHashMap<Long, LanePacking>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, LanePacking> eldest) {
+			return size() > CACHED_PACKINGS;
+		}
+	};
+
+	/**
+	 * cached highest selection type of each data item as index + 1 into {@link #stateTypes} or 0 if not selected
+	 */
+	private byte[] selectionStates;
+	private final List<SelectionType> stateTypes = new ArrayList<>();
+	/**
+	 * data indices, whose state was set since the last full update of {@link #selectionStates}
+	 */
+	private int[] markedIndices = new int[16];
+	private int markedSize = 0;
+	/**
+	 * sorted (id, data index) pairs for resolving ids to their data indices
+	 */
+	private long[] idIndex;
+
+	/**
+	 * items per pixel, above which the items are aggregated per pixel column
+	 */
+	private float lodThreshold = DEFAULT_LOD_THRESHOLD;
+	/**
+	 * level of detail state: number of items covering a pixel column and the highest selection type within it
+	 */
+	private int[] binCoverage;
+	private SelectionType[] binSelection;
+	private int binMaxCoverage;
+
+	/**
+	 * batched geometry of all items, rebuilt only if the locations, the selections, or the size changed
+	 */
+	private final RectBatch geometry = new RectBatch();
+	private boolean geometryDirty = true;
+	private float geometryWidth;
+	private float geometryHeight;
 
 	public ChromosomeLocationElement(EDimension dim, List<Integer> data, IDType idType,
 			Function<Integer, Vec2f> id2range) {
@@ -73,6 +201,8 @@ public class ChromosomeLocationElement extends PickableGLElement implements
 		if (!pick.isAnyDragging())
 			pick.setDoDragging(true);
 		this.start = dim.select(toRelative(pick.getPickedPoint())) / dim.select(getSize());
+		this.selectedFrom = Float.NaN;
+		this.selectedTo = Float.NaN;
 	}
 
 	/**
@@ -97,33 +227,394 @@ public class ChromosomeLocationElement extends PickableGLElement implements
 		SelectionManager m = selections.get(0);
 		float a = Math.min(start, end);
 		float b = Math.max(start, end);
-		Set<Integer> toSelect = getIDs(a, b);
-		m.clearSelection(SelectionType.SELECTION);
-		m.addToType(SelectionType.SELECTION, toSelect);
-		selections.fireSelectionDelta(m);
+		if (Float.isNaN(selectedFrom)) { // new range
+			m.clearSelection(SelectionType.SELECTION);
+			m.addToType(SelectionType.SELECTION, getIDs(a, b));
+			updateSelectionStates(m);
+		} else { // just the items that entered or left the range
+			List<Integer> added = new ArrayList<>();
+			List<Integer> removed = new ArrayList<>();
+			addDifference(a, b, selectedFrom, selectedTo, added);
+			addDifference(selectedFrom, selectedTo, a, b, removed);
+			if (added.isEmpty() && removed.isEmpty()) {
+				selectedFrom = a;
+				selectedTo = b;
+				return;
+			}
+			for (Integer id : removed)
+				m.removeFromType(SelectionType.SELECTION, id);
+			m.addToType(SelectionType.SELECTION, added);
+			updateSelectionStates(m, removed);
+			updateSelectionStates(m, added);
+		}
+		selectedFrom = a;
+		selectedTo = b;
+		geometryDirty = true;
+		fireSelectionDelta();
 	}
 
-	Set<Integer> getIDs(float a, float b) {
-		Set<Integer> toSelect = new HashSet<>();
-		for (Integer id : data) {
-			Vec2f v = id2range.apply(id);
-			if (v == null || Float.isNaN(v.x()) || Float.isNaN(v.y()))
-				continue;
-			if ((v.x() >= a && v.x() <= b) || (v.y() >= a && v.y() <= b) || (v.x() < a && v.y() > b))
-				toSelect.add(id);
+	/**
+	 * adds the ids of all items, which overlap the range [a,b] but not the range [notA,notB]
+	 */
+	private void addDifference(float a, float b, float notA, float notB, Collection<Integer> r) {
+		IntervalIndex index = getIndex();
+		// an item which doesn't overlap [notA, notB] is either completely before or after it
+		if (a < notA) {
+			for (int i : index.query(a, Math.min(b, notA)))
+				if (starts[i] + lengths[i] < notA)
+					r.add(data.get(i));
+		}
+		if (b > notB) {
+			for (int i : index.query(Math.max(a, notB), b))
+				if (starts[i] > notB)
+					r.add(data.get(i));
+		}
+	}
+
+	private void fireSelectionDelta() {
+		if (coalesceSelectionEvents) {
+			selectionEventPending = true;
+			repaint();
+		} else {
+			selectionEventPending = false;
+			selections.fireSelectionDelta(selections.get(0));
 		}
+	}
+
+	/**
+	 * @param coalesceSelectionEvents
+	 *            setter, see {@link #coalesceSelectionEvents}
+	 */
+	public void setCoalesceSelectionEvents(boolean coalesceSelectionEvents) {
+		this.coalesceSelectionEvents = coalesceSelectionEvents;
+	}
+
+	/**
+	 * @return the coalesceSelectionEvents, see {@link #coalesceSelectionEvents}
+	 */
+	public boolean isCoalesceSelectionEvents() {
+		return coalesceSelectionEvents;
+	}
+
+	Set<Integer> getIDs(float a, float b) {
+		int[] indices = getIndex().query(a, b);
+		Set<Integer> toSelect = new HashSet<>(indices.length);
+		for (int i : indices)
+			toSelect.add(data.get(i));
 		return toSelect;
 	}
 
+	private IntervalIndex getIndex() {
+		updateLocations();
+		if (index == null)
+			index = toIndex(starts, lengths, valid);
+		return index;
+	}
+
+	private static IntervalIndex toIndex(float[] starts, float[] lengths, BitSet valid) {
+		final int n = valid.cardinality();
+		float[] s = new float[n];
+		float[] e = new float[n];
+		int[] indices = new int[n];
+		int k = 0;
+		for (int i = valid.nextSetBit(0); i >= 0; i = valid.nextSetBit(i + 1)) {
+			s[k] = starts[i];
+			e[k] = starts[i] + lengths[i];
+			indices[k++] = i;
+		}
+		return new IntervalIndex(n, s, e, indices);
+	}
+
+	/**
+	 * resolves the locations of all data items if the data or the chromosome changed
+	 */
+	private void updateLocations() {
+		final int n = data.size();
+		if (starts != null && starts.length == n && !dataChanged)
+			return;
+		dataChanged = false;
+		final float[] oldStarts = starts;
+		final float[] oldLengths = lengths;
+		final BitSet oldValid = stacked && oldStarts != null ? (BitSet) valid.clone() : null;
+		final IntervalIndex oldIndex = index;
+		starts = new float[n];
+		lengths = new float[n];
+		valid.clear();
+		index = null;
+		histogram = null;
+		geometryDirty = true;
+		if (id2range instanceof IRangeFunction) { // bulk version
+			float[] ranges = new float[n * 2];
+			((IRangeFunction) id2range).applyAll(data, ranges);
+			for (int i = 0; i < n; ++i) {
+				float start = ranges[i * 2];
+				float length = ranges[i * 2 + 1];
+				if (Float.isNaN(start) || Float.isNaN(length))
+					continue;
+				starts[i] = start;
+				lengths[i] = length;
+				valid.set(i);
+			}
+		} else {
+			for (int i = 0; i < n; ++i) {
+				Vec2f v = id2range.apply(data.get(i));
+				if (v == null || Float.isNaN(v.x()) || Float.isNaN(v.y()))
+					continue;
+				starts[i] = v.x();
+				lengths[i] = v.y();
+				valid.set(i);
+			}
+		}
+		validCount = valid.cardinality();
+		if (stacked)
+			updateLanes(oldStarts, oldLengths, oldValid, oldIndex);
+	}
+
+	/**
+	 * needs to be called if the ids of {@link #data} were changed in place, e.g. a reordered VirtualArray. Just a
+	 * changed size is detected without it, as checking the content would cost O(n) for every access, but without
+	 * updating the layout of the parent in the stacked mode. The previous locations are kept until the new ones are
+	 * resolved, such that the lanes of appended items are packed incrementally.
+	 */
+	public void onDataChanged() {
+		selectionStates = null; // the data indices of the ids changed
+		dataChanged = true;
+		hovered = Collections.emptySet();
+		geometryDirty = true;
+		if (stacked) // the number of lanes may change
+			relayoutParent();
+		repaint();
+	}
+
+	/**
+	 * assigns the items to lanes, reusing the packing of the same locations or extending the previous one if items
+	 * were just appended
+	 */
+	private void updateLanes(float[] oldStarts, float[] oldLengths, BitSet oldValid, IntervalIndex oldIndex) {
+		final LanePacking old = lanes;
+		final int n = starts.length;
+		long key = fingerprint();
+		LanePacking p = packings.get(key);
+		if (p == null) {
+			if (old != null && oldValid != null && old.size() == oldStarts.length && oldStarts.length < n
+					&& isPrefix(oldStarts, oldLengths, oldValid))
+				p = old.extend(n, starts, lengths, valid,
+						oldIndex != null ? oldIndex : toIndex(oldStarts, oldLengths, oldValid));
+			else
+				p = LanePacking.pack(n, starts, lengths, valid);
+			packings.put(key, p);
+		}
+		lanes = p;
+	}
+
+	private long fingerprint() {
+		long h = starts.length;
+		for (int i = valid.nextSetBit(0); i >= 0; i = valid.nextSetBit(i + 1)) {
+			h = (h ^ i) * 0x100000001b3L;
+			h = (h ^ Float.floatToIntBits(starts[i])) * 0x100000001b3L;
+			h = (h ^ Float.floatToIntBits(lengths[i])) * 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * @return whether the current locations start with the given ones
+	 */
+	private boolean isPrefix(float[] oldStarts, float[] oldLengths, BitSet oldValid) {
+		for (int i = 0; i < oldStarts.length; ++i) {
+			if (valid.get(i) != oldValid.get(i))
+				return false;
+			if (valid.get(i) && (starts[i] != oldStarts[i] || lengths[i] != oldLengths[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param stacked
+	 *            setter, see {@link #stacked}
+	 */
+	public void setStacked(boolean stacked) {
+		if (this.stacked == stacked)
+			return;
+		this.stacked = stacked;
+		lanes = null;
+		if (stacked && starts != null)
+			updateLanes(null, null, null, null);
+		geometryDirty = true;
+		relayoutParent();
+		repaint();
+	}
+
+	/**
+	 * @return the stacked, see {@link #stacked}
+	 */
+	public boolean isStacked() {
+		return stacked;
+	}
+
+	/**
+	 * @param opposite
+	 *            the size in the opposite dimension
+	 * @return the size of a lane, smaller than {@link #LANE_SIZE} if not all lanes fit but at least one pixel
+	 */
+	private float getLaneSize(float opposite) {
+		int count = lanes == null ? 1 : Math.max(1, lanes.getLaneCount());
+		return Math.max(1, Math.min(LANE_SIZE, (opposite - STACKED_PADDING * 2) / count));
+	}
+
+	/**
+	 * @param pixels
+	 *            the size in pixels
+	 * @return whether the items are aggregated per pixel column, in which case they aren't stacked
+	 */
+	private boolean isLevelOfDetail(int pixels) {
+		return pixels > 0 && validCount > pixels * lodThreshold;
+	}
+
+	/**
+	 * @param location
+	 *            relative location in pixels
+	 * @return the ids of the items at the given location, just the ones within its lane in the stacked mode unless
+	 *         the level of detail rendering is used
+	 */
+	public Set<Integer> getIDsAt(Vec2f location) {
+		final Vec2f size = getSize();
+		final float total = dim.select(size);
+		final float pos = dim.select(location) / total;
+		int lane = -1;
+		updateLocations();
+		if (stacked && !isLevelOfDetail((int) Math.ceil(total))) {
+			final float opposite = dim.opposite().select(size);
+			lane = (int) Math.floor((dim.opposite().select(location) - STACKED_PADDING) / getLaneSize(opposite));
+			if (lanes == null || lane < 0 || lane >= lanes.getLaneCount())
+				return Collections.emptySet();
+		}
+		// the items are drawn at least one pixel large
+		int[] indices = getIndex().query(pos - 1 / total, pos);
+		Set<Integer> r = new LinkedHashSet<>();
+		for (int i : indices)
+			if (lane < 0 || lanes.getLane(i) == lane)
+				r.add(data.get(i));
+		return r;
+	}
+
+	/**
+	 * invalidates all cached locations, needs to be called if the result of {@link #id2range} changed, e.g. another
+	 * chromosome was selected
+	 */
+	public void invalidateLocations() {
+		starts = null;
+		hovered = Collections.emptySet();
+		lengths = null;
+		index = null;
+		histogram = null;
+		geometryDirty = true;
+		if (stacked) // the number of lanes may change
+			relayoutParent();
+		repaint();
+	}
+
+	/**
+	 * @param lodThreshold
+	 *            setter, see {@link #lodThreshold}
+	 */
+	public void setLevelOfDetailThreshold(float lodThreshold) {
+		if (this.lodThreshold == lodThreshold)
+			return;
+		this.lodThreshold = lodThreshold;
+		geometryDirty = true;
+		repaint();
+	}
+
+	/**
+	 * @return the lodThreshold, see {@link #lodThreshold}
+	 */
+	public float getLevelOfDetailThreshold() {
+		return lodThreshold;
+	}
+
+	/**
+	 * @param itemTooltip
+	 *            setter, see {@link #itemTooltip}
+	 */
+	public void setItemTooltip(Function<? super Integer, String> itemTooltip) {
+		this.itemTooltip = itemTooltip;
+	}
+
+	/**
+	 * @return the itemTooltip, see {@link #itemTooltip}
+	 */
+	public Function<? super Integer, String> getItemTooltip() {
+		return itemTooltip;
+	}
+
+	@Override
+	protected void onMouseMoved(Pick pick) {
+		if (itemTooltip == null || pick.isAnyDragging())
+			return;
+		// a point query instead of one pickable object per item
+		Set<Integer> ids = getIDsAt(toRelative(pick.getPickedPoint()));
+		if (ids.equals(hovered))
+			return;
+		hovered = ids;
+		if (ids.isEmpty())
+			context.getSWTLayer().hideTooltip();
+		else
+			context.getSWTLayer().showToolTip(toTooltip(ids));
+	}
+
+	@Override
+	protected void onMouseOut(Pick pick) {
+		if (!hovered.isEmpty()) {
+			hovered = Collections.emptySet();
+			context.getSWTLayer().hideTooltip();
+		}
+		super.onMouseOut(pick);
+	}
+
+	private String toTooltip(Set<Integer> ids) {
+		StringBuilder b = new StringBuilder();
+		int k = 0;
+		for (Integer id : ids) {
+			if (k++ == MAX_TOOLTIP_ITEMS) {
+				b.append("\n... and ").append(ids.size() - MAX_TOOLTIP_ITEMS).append(" more");
+				break;
+			}
+			if (b.length() > 0)
+				b.append('\n');
+			String label = itemTooltip.apply(id);
+			b.append(label == null ? String.valueOf(id) : label);
+		}
+		return b.toString();
+	}
+
 	@Override
 	protected void onClicked(Pick pick) {
 		if (noIDType())
 			return;
 		if (!Float.isNaN(start)) {
 			selections.get(0).clearSelection(SelectionType.SELECTION);
+			updateSelectionStates(selections.get(0));
+			selectionEventPending = false;
 			selections.fireSelectionDelta(selections.get(0));
+			geometryDirty = true;
 			start = Float.NaN;
 			end = Float.NaN;
+			selectedFrom = Float.NaN;
+			selectedTo = Float.NaN;
+			repaint();
+		} else { // select the items at the clicked point
+			Set<Integer> ids = getIDsAt(toRelative(pick.getPickedPoint()));
+			if (ids.isEmpty())
+				return;
+			SelectionManager m = selections.get(0);
+			m.clearSelection(SelectionType.SELECTION);
+			m.addToType(SelectionType.SELECTION, ids);
+			updateSelectionStates(m);
+			selectionEventPending = false;
+			selections.fireSelectionDelta(m);
+			geometryDirty = true;
 			repaint();
 		}
 	}
@@ -131,7 +622,10 @@ public class ChromosomeLocationElement extends PickableGLElement implements
 	@Override
 	protected void renderImpl(GLGraphics g, float w, float h) {
 		SelectionManager manager = selections.isEmpty() ? null : selections.get(0);
-		final int n = data.size();
+		if (selectionEventPending) { // fire the coalesced selection changes of this frame
+			selectionEventPending = false;
+			selections.fireSelectionDelta(manager);
+		}
 		float o = dim.opposite().select(w, h) * 0.1f;
 
 		if (dim.isHorizontal()) {
@@ -139,26 +633,154 @@ public class ChromosomeLocationElement extends PickableGLElement implements
 		} else {
 			g.color(Color.BLACK).drawLine(w * 0.5f, 0, w * 0.5f, h);
 		}
-		for (int i = 0; i < n; ++i) {
-			Vec2f v = id2range.apply(data.get(i));
-			if (v == null || Float.isNaN(v.x()) || Float.isNaN(v.y()))
-				continue;
-			SelectionType t = manager == null ? null : manager.getHighestSelectionType(data.get(i));
-			if (t == null) {
-				g.color(0, 0, 0, 0.5f);
-			} else {
+		renderBoundaries(g, w, h);
+		updateLocations();
+		if (geometryDirty || w != geometryWidth || h != geometryHeight)
+			updateGeometry(w, h);
+		geometry.render(g.gl, g.z());
+
+		renderSelectionRange(g, w, h, o);
+		super.renderImpl(g, w, h);
+	}
+
+	/**
+	 * rebuilds the batched geometry of all items for the given size
+	 */
+	private void updateGeometry(float w, float h) {
+		geometry.clear();
+		final int pixels = (int) Math.ceil(dim.select(w, h));
+		final boolean lod = isLevelOfDetail(pixels);
+		float o = stacked && !lod ? STACKED_PADDING : dim.opposite().select(w, h) * 0.1f;
+		if (lod)
+			addBins(w, h, o, pixels);
+		else
+			addItems(w, h, o);
+		geometryWidth = w;
+		geometryHeight = h;
+		geometryDirty = false;
+	}
+
+	private void addItems(float w, float h, float o) {
+		ensureSelectionStates();
+		final float laneSize = getLaneSize(dim.opposite().select(w, h));
+		final float bar = laneSize < 2 ? laneSize : laneSize - 1; // without the gap if the lanes get too small
+		for (int i = valid.nextSetBit(0); i >= 0; i = valid.nextSetBit(i + 1)) {
+			SelectionType t = getSelectionState(i);
+			float r = 0, g = 0, b = 0;
+			if (t != null) {
 				final Color c = t.getColor();
-				g.color(c.r, c.g, c.b, 0.5f);
+				r = c.r;
+				g = c.g;
+				b = c.b;
 			}
-			if (dim.isHorizontal()) {
-				g.fillRect(w * v.x(), o, Math.max(w * v.y(), 1), h - o * 2);
+			if (lanes != null) { // stacked
+				float lane = o + lanes.getLane(i) * laneSize;
+				if (dim.isHorizontal())
+					geometry.add(w * starts[i], lane, Math.max(w * lengths[i], 1), bar, r, g, b, 0.5f);
+				else
+					geometry.add(lane, h * starts[i], bar, Math.max(h * lengths[i], 1), r, g, b, 0.5f);
+			} else if (dim.isHorizontal()) {
+				geometry.add(w * starts[i], o, Math.max(w * lengths[i], 1), h - o * 2, r, g, b, 0.5f);
 			} else {
-				g.fillRect(o, h * v.x(), w - o * 2, Math.max(h * v.y(), 1));
+				geometry.add(o, h * starts[i], w - o * 2, Math.max(h * lengths[i], 1), r, g, b, 0.5f);
 			}
 		}
+	}
 
-		renderSelectionRange(g, w, h, o);
-		super.renderImpl(g, w, h);
+	/**
+	 * level of detail: one rect per pixel column, whose opacity encodes the number of covering items
+	 */
+	private void addBins(float w, float h, float o, int pixels) {
+		updateBins(pixels);
+		final float step = dim.select(w, h) / pixels;
+		// log scale, such that single items are still visible
+		final float norm = 1.f / (float) Math.log1p(binMaxCoverage);
+		for (int i = 0; i < pixels; ++i) {
+			final int c = binCoverage[i];
+			if (c == 0)
+				continue;
+			float alpha = 0.2f + 0.8f * (float) Math.log1p(c) * norm;
+			SelectionType t = binSelection[i];
+			float r = 0, g = 0, b = 0;
+			if (t != null) {
+				final Color col = t.getColor();
+				r = col.r;
+				g = col.g;
+				b = col.b;
+			}
+			if (dim.isHorizontal())
+				geometry.add(i * step, o, step, h - o * 2, r, g, b, alpha);
+			else
+				geometry.add(o, i * step, w - o * 2, step, r, g, b, alpha);
+		}
+	}
+
+	/**
+	 * software rendering of the items into the given image, to verify the geometry without a GPU
+	 *
+	 * @param target
+	 */
+	void rasterize(BufferedImage target) {
+		updateLocations();
+		updateGeometry(target.getWidth(), target.getHeight());
+		geometry.rasterize(target);
+		geometryDirty = true;
+	}
+
+	/**
+	 * aggregates the items into the given number of columns using the {@link #histogram} in O(pixels), the selection
+	 * states just in the order of the selected items
+	 */
+	private void updateBins(int pixels) {
+		if (binCoverage == null || binCoverage.length != pixels) {
+			binCoverage = new int[pixels];
+			binSelection = new SelectionType[pixels];
+		}
+		binMaxCoverage = getHistogram().aggregate(pixels, binCoverage);
+		Arrays.fill(binSelection, null);
+		ensureSelectionStates();
+		// all selected items are marked, the reset ones have a state of 0
+		for (int k = 0; k < markedSize; ++k) {
+			int i = markedIndices[k];
+			SelectionType t = getSelectionState(i);
+			if (t == null || !valid.get(i))
+				continue;
+			int from = CoverageHistogram.toBin(starts[i], pixels);
+			int to = CoverageHistogram.toBin(starts[i] + lengths[i], pixels);
+			for (int j = from; j <= to; ++j) {
+				SelectionType act = binSelection[j];
+				if (act == null || act.getPriority() < t.getPriority())
+					binSelection[j] = t;
+			}
+		}
+	}
+
+	private CoverageHistogram getHistogram() {
+		updateLocations();
+		if (histogram == null)
+			histogram = new CoverageHistogram(starts, lengths, valid);
+		return histogram;
+	}
+
+	private void renderBoundaries(GLGraphics g, float w, float h) {
+		if (boundaries == null)
+			return;
+		g.color(Color.GRAY);
+		for (float b : boundaries) {
+			if (dim.isHorizontal())
+				g.drawLine(b * w, 0, b * w, h);
+			else
+				g.drawLine(0, b * h, w, b * h);
+		}
+	}
+
+	/**
+	 * @param boundaries
+	 *            setter, see {@link #boundaries}
+	 */
+	public void setBoundaries(float[] boundaries) {
+		this.boundaries = boundaries;
+		repaint();
 	}
 
 	private void renderSelectionRange(GLGraphics g, float w, float h, float o) {
@@ -175,6 +797,151 @@ public class ChromosomeLocationElement extends PickableGLElement implements
 		}
 	}
 
+	/**
+	 * @param index
+	 *            data index
+	 * @return the cached highest selection type of the given data item or null if none
+	 */
+	private SelectionType getSelectionState(int index) {
+		byte state = selectionStates[index];
+		return state == 0 ? null : stateTypes.get(state - 1);
+	}
+
+	private void ensureSelectionStates() {
+		final int n = data.size();
+		if (selectionStates != null && selectionStates.length == n)
+			return;
+		selectionStates = new byte[n];
+		markedSize = 0;
+		idIndex = new long[n];
+		for (int i = 0; i < n; ++i)
+			idIndex[i] = ((long) data.get(i)) << 32 | i;
+		Arrays.sort(idIndex);
+		updateSelectionStates(noIDType() ? null : selections.get(0));
+	}
+
+	/**
+	 * recomputes the selection states of all items based on the elements of the selection types, i.e. in the order of
+	 * the number of selected elements and not of the number of items
+	 *
+	 * @param manager
+	 */
+	private void updateSelectionStates(SelectionManager manager) {
+		geometryDirty = true;
+		if (selectionStates == null || selectionStates.length != data.size()) {
+			ensureSelectionStates();
+			return;
+		}
+		for (int k = 0; k < markedSize; ++k)
+			selectionStates[markedIndices[k]] = 0;
+		markedSize = 0;
+		stateTypes.clear(); // no item has a state anymore
+		if (manager == null)
+			return;
+		for (SelectionType type : manager.getSelectionTypes()) {
+			Collection<Integer> ids = manager.getElements(type);
+			if (ids == null || ids.isEmpty())
+				continue;
+			for (Integer id : ids)
+				mark(id, type);
+		}
+	}
+
+	/**
+	 * recomputes the selection states of the items with the given ids
+	 *
+	 * @param manager
+	 * @param ids
+	 */
+	private void updateSelectionStates(SelectionManager manager, Collection<Integer> ids) {
+		geometryDirty = true;
+		if (selectionStates == null || selectionStates.length != data.size()) {
+			ensureSelectionStates();
+			return;
+		}
+		for (Integer id : ids) {
+			mark(id, null); // reset
+			SelectionType type = manager.getHighestSelectionType(id);
+			if (type != null)
+				mark(id, type);
+		}
+	}
+
+	/**
+	 * sets the state of all items with the given id to the given type, if it has a higher priority than the current
+	 * one
+	 *
+	 * @param id
+	 * @param type
+	 *            the new type or null to reset the state
+	 */
+	private void mark(int id, SelectionType type) {
+		final long[] ids = idIndex;
+		int i = Arrays.binarySearch(ids, ((long) id) << 32);
+		if (i < 0)
+			i = -i - 1;
+		for (; i < ids.length && (int) (ids[i] >> 32) == id; ++i) {
+			int index = (int) ids[i];
+			byte act = selectionStates[index];
+			if (type == null) {
+				selectionStates[index] = 0;
+				continue;
+			}
+			if (act != 0 && stateTypes.get(act - 1).getPriority() >= type.getPriority())
+				continue;
+			if (act == 0)
+				addMarked(index);
+			selectionStates[index] = toState(type);
+		}
+	}
+
+	private byte toState(SelectionType type) {
+		int index = stateTypes.indexOf(type);
+		if (index < 0) {
+			if (stateTypes.size() == Byte.MAX_VALUE)
+				pruneStateTypes();
+			if (stateTypes.size() == Byte.MAX_VALUE)
+				throw new IllegalStateException("too many selection types at once: " + stateTypes.size());
+			index = stateTypes.size();
+			stateTypes.add(type);
+		}
+		return (byte) (index + 1);
+	}
+
+	/**
+	 * removes the selection types, no item is in anymore, from {@link #stateTypes} and remaps the states, such that
+	 * they stay within the range of a byte
+	 */
+	private void pruneStateTypes() {
+		byte[] remap = new byte[stateTypes.size() + 1];
+		List<SelectionType> used = new ArrayList<>();
+		for (int i = 0; i < selectionStates.length; ++i) {
+			byte state = selectionStates[i];
+			if (state == 0)
+				continue;
+			if (remap[state] == 0) {
+				used.add(stateTypes.get(state - 1));
+				remap[state] = (byte) used.size();
+			}
+			selectionStates[i] = remap[state];
+		}
+		stateTypes.clear();
+		stateTypes.addAll(used);
+	}
+
+	private void addMarked(int index) {
+		if (markedSize == markedIndices.length) {
+			if (markedSize >= selectionStates.length) { // compact: collect the ones still marked
+				markedSize = 0;
+				for (int i = 0; i < selectionStates.length; ++i)
+					if (selectionStates[i] != 0)
+						markedIndices[markedSize++] = i;
+			} else
+				markedIndices = Arrays.copyOf(markedIndices, Math.min(markedSize * 2, selectionStates.length + 1));
+		}
+		markedIndices[markedSize++] = index;
+	}
+
 	/**
 	 * @return the id2range, see {@link #id2range}
 	 */
@@ -187,24 +954,35 @@ public class ChromosomeLocationElement extends PickableGLElement implements
 	 * @return
 	 */
 	public GLElementDimensionDesc getDesc(EDimension dim) {
-		if (this.dim != dim)
+		if (this.dim != dim) {
+			if (stacked) {
+				updateLocations();
+				int count = lanes == null ? 1 : lanes.getLaneCount();
+				return GLElementDimensionDesc.newFix(Math.max(20, count * LANE_SIZE + STACKED_PADDING * 2))
+						.minimum(10).build();
+			}
 			return GLElementDimensionDesc.newFix(20).minimum(10).build();
+		}
 		return GLElementDimensionDesc.newFix(20).minimum(50).locateUsing(this).build();
 	}
 
 	@Override
 	public void onSelectionUpdate(SelectionManager manager) {
+		updateSelectionStates(manager);
+		geometryDirty = true;
 		repaint();
 		this.start = Float.NaN;
+		this.selectedFrom = Float.NaN;
+		this.selectedTo = Float.NaN;
 	}
 
 	@Override
 	public GLLocation apply(int dataIndex, boolean topLeft) {
 		float total = dim.select(getSize());
-		Vec2f v = id2range.apply(data.get(dataIndex));
-		if (v == null || Float.isNaN(v.x()) || Float.isNaN(v.y()))
+		updateLocations();
+		if (!valid.get(dataIndex))
 			return GLLocation.UNKNOWN;
-		return new GLLocation(total * v.x(), total * v.y());
+		return new GLLocation(total * starts[dataIndex], total * lengths[dataIndex]);
 	}
 
 	@Override
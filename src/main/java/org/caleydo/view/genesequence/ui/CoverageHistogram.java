@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.ui;
+
+import java.util.BitSet;
+
+/**
+ * a static multi-resolution histogram of intervals within the normalized range [0,1], i.e. the total length of the
+ * chromosome. It stores the cumulative number of interval starts and ends over 2^{@link #LEVEL} bins, such that the
+ * number of intervals covering any range of bins, i.e. any coarser resolution, is derived in O(1). Built once in O(n),
+ * afterwards the coverage of the pixel columns costs O(pixels) independent of the number of intervals.
+ *
+ * @author Samuel Gratzl
+ *
+ */
+final class CoverageHistogram {
+	/**
+	 * the histogram has 2^LEVEL bins
+	 */
+	static final int LEVEL = 16;
+	private static final int BINS = 1 << LEVEL;
+
+	/**
+	 * number of intervals starting in a bin before the given one
+	 */
+	private final int[] startsBefore = new int[BINS + 1];
+	/**
+	 * number of intervals ending in a bin before the given one
+	 */
+	private final int[] endsBefore = new int[BINS + 1];
+
+	/**
+	 * @param starts
+	 *            normalized interval starts
+	 * @param lengths
+	 *            normalized interval lengths
+	 * @param valid
+	 *            the intervals to consider
+	 */
+	public CoverageHistogram(float[] starts, float[] lengths, BitSet valid) {
+		for (int i = valid.nextSetBit(0); i >= 0; i = valid.nextSetBit(i + 1)) {
+			startsBefore[toBin(starts[i], BINS) + 1]++;
+			endsBefore[toBin(starts[i] + lengths[i], BINS) + 1]++;
+		}
+		for (int i = 1; i <= BINS; ++i) {
+			startsBefore[i] += startsBefore[i - 1];
+			endsBefore[i] += endsBefore[i - 1];
+		}
+	}
+
+	static int toBin(float v, int bins) {
+		return Math.max(0, Math.min(bins - 1, (int) (v * bins)));
+	}
+
+	/**
+	 * @param from
+	 *            first bin
+	 * @param to
+	 *            last bin (inclusive)
+	 * @return the number of intervals overlapping the given range of bins
+	 */
+	public int coverage(int from, int to) {
+		// all that start before the end minus the ones that ended before the start
+		return startsBefore[to + 1] - endsBefore[from];
+	}
+
+	/**
+	 * computes the number of intervals covering each of the given number of pixel columns
+	 *
+	 * @param pixels
+	 * @param out
+	 *            at least pixels long
+	 * @return the maximal coverage of a column
+	 */
+	public int aggregate(int pixels, int[] out) {
+		int max = 0;
+		for (int p = 0; p < pixels; ++p) {
+			int from = (int) ((long) p * BINS / pixels);
+			int to = (int) Math.max(from, ((long) (p + 1) * BINS - 1) / pixels);
+			int c = coverage(from, to);
+			out[p] = c;
+			max = Math.max(max, c);
+		}
+		return max;
+	}
+}
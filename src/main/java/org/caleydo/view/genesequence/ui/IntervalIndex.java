@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.ui;
+
+import java.util.Arrays;
+
+/**
+ * a static index over closed intervals, which answers overlap queries in O(log n + k).
+ *
+ * the intervals are sorted by their start and interpreted as an implicit augmented binary search tree (in-order
+ * layout), in which every inner node stores the maximal end of its subtree, see Heng Li's cgranges
+ *
+ * @author Samuel Gratzl
+ *
+ */
+final class IntervalIndex {
+	private static final int[] EMPTY = new int[0];
+
+	private final int size;
+	/**
+	 * sorted interval starts
+	 */
+	private final float[] starts;
+	private final float[] ends;
+	/**
+	 * maximal end within the subtree rooted at the given position
+	 */
+	private final float[] maxEnds;
+	/**
+	 * the external index of the interval at the given position
+	 */
+	private final int[] indices;
+	private final int rootLevel;
+
+	/**
+	 * @param size
+	 *            number of intervals
+	 * @param starts
+	 *            interval starts
+	 * @param ends
+	 *            interval ends (inclusive)
+	 * @param indices
+	 *            external index of the intervals, e.g. the index within a data list
+	 */
+	public IntervalIndex(int size, float[] starts, float[] ends, int[] indices) {
+		this.size = size;
+		this.starts = new float[size];
+		this.ends = new float[size];
+		this.maxEnds = new float[size];
+		this.indices = new int[size];
+
+		// sort by start using a packed (sortable start bits, position) key to avoid boxing
+		long[] keys = new long[size];
+		for (int i = 0; i < size; ++i)
+			keys[i] = ((long) sortable(starts[i])) << 32 | i;
+		Arrays.sort(keys);
+		for (int i = 0; i < size; ++i) {
+			int j = (int) (keys[i] & 0xFFFFFFFFL);
+			this.starts[i] = starts[j];
+			this.ends[i] = ends[j];
+			this.indices[i] = indices[j];
+		}
+		this.rootLevel = buildMaxEnds();
+	}
+
+	/**
+	 * maps a float to an int with the same ordering
+	 */
+	static int sortable(float v) {
+		int bits = Float.floatToIntBits(v);
+		return bits ^ ((bits >> 31) & 0x7fffffff);
+	}
+
+	private int buildMaxEnds() {
+		final int n = size;
+		if (n == 0)
+			return -1;
+		int lastI = 0;
+		float last = 0;
+		// leaves
+		for (int i = 0; i < n; i += 2) {
+			lastI = i;
+			last = maxEnds[i] = ends[i];
+		}
+		int k;
+		for (k = 1; 1L << k <= n; ++k) {
+			final int x = 1 << (k - 1);
+			final int i0 = (x << 1) - 1;
+			final int step = x << 2;
+			for (int i = i0; i < n; i += step) {
+				float el = maxEnds[i - x];
+				float er = i + x < n ? maxEnds[i + x] : last;
+				maxEnds[i] = Math.max(ends[i], Math.max(el, er));
+			}
+			lastI = ((lastI >> k) & 1) != 0 ? lastI - x : lastI + x;
+			if (lastI < n && maxEnds[lastI] > last)
+				last = maxEnds[lastI];
+		}
+		return k - 1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param a
+	 * @param b
+	 * @return the external indices of all intervals overlapping the closed range [a,b], ordered by their start
+	 */
+	public int[] query(float a, float b) {
+		final int n = size;
+		if (n == 0 || Float.isNaN(a) || Float.isNaN(b))
+			return EMPTY;
+		int[] r = new int[16];
+		int k = 0;
+
+		// (level, node, left child visited) triples
+		int[] stack = new int[64 * 3];
+		int t = 0;
+		stack[t++] = rootLevel;
+		stack[t++] = (1 << rootLevel) - 1;
+		stack[t++] = 0;
+		while (t > 0) {
+			final int w = stack[--t];
+			final int x = stack[--t];
+			final int level = stack[--t];
+			if (level <= 3) { // small subtree: linear scan
+				int i0 = x >> level << level;
+				int i1 = Math.min(i0 + (1 << (level + 1)) - 1, n);
+				for (int i = i0; i < i1 && starts[i] <= b; ++i)
+					if (ends[i] >= a) {
+						if (k == r.length)
+							r = Arrays.copyOf(r, k * 2);
+						r[k++] = indices[i];
+					}
+			} else if (w == 0) { // left child not yet visited
+				int y = x - (1 << (level - 1)); // may be out of range
+				stack[t++] = level;
+				stack[t++] = x;
+				stack[t++] = 1;
+				if (y >= n || maxEnds[y] >= a) {
+					stack[t++] = level - 1;
+					stack[t++] = y;
+					stack[t++] = 0;
+				}
+			} else if (x < n && starts[x] <= b) {
+				if (ends[x] >= a) {
+					if (k == r.length)
+						r = Arrays.copyOf(r, k * 2);
+					r[k++] = indices[x];
+				}
+				// right child
+				stack[t++] = level - 1;
+				stack[t++] = x + (1 << (level - 1));
+				stack[t++] = 0;
+			}
+		}
+		return k == r.length ? r : Arrays.copyOf(r, k);
+	}
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.ui;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * assignment of intervals to lanes, such that the intervals within a lane don't overlap. Computed by a greedy sweep
+ * over the intervals sorted by their start, which reuses the lane that ended first, in O(n log n).
+ *
+ * @author Samuel Gratzl
+ *
+ */
+final class LanePacking {
+	/**
+	 * lane per index or -1 if not packed
+	 */
+	private final int[] lanes;
+	private final int laneCount;
+
+	private LanePacking(int[] lanes, int laneCount) {
+		this.lanes = lanes;
+		this.laneCount = laneCount;
+	}
+
+	/**
+	 * @param size
+	 *            number of intervals
+	 * @param starts
+	 *            normalized interval starts
+	 * @param lengths
+	 *            normalized interval lengths
+	 * @param valid
+	 *            the intervals to pack
+	 * @return
+	 */
+	public static LanePacking pack(int size, float[] starts, float[] lengths, BitSet valid) {
+		int[] lanes = new int[size];
+		Arrays.fill(lanes, -1);
+		final int n = valid.cardinality();
+		long[] keys = new long[n];
+		int k = 0;
+		for (int i = valid.nextSetBit(0); i >= 0; i = valid.nextSetBit(i + 1))
+			keys[k++] = ((long) IntervalIndex.sortable(starts[i])) << 32 | i;
+		Arrays.sort(keys);
+
+		// min heap of the lanes by their end as (sortable end bits, lane)
+		long[] heap = new long[16];
+		float[] laneEnds = new float[16];
+		int laneCount = 0;
+		for (long key : keys) {
+			final int i = (int) (key & 0xFFFFFFFFL);
+			final float end = starts[i] + lengths[i];
+			int lane;
+			if (laneCount > 0 && laneEnds[(int) heap[0]] < starts[i]) { // reuse the lane that ended first
+				lane = (int) heap[0];
+				heap[0] = ((long) IntervalIndex.sortable(end)) << 32 | lane;
+				siftDown(heap, laneCount);
+			} else {
+				lane = laneCount;
+				if (lane == heap.length) {
+					heap = Arrays.copyOf(heap, lane * 2);
+					laneEnds = Arrays.copyOf(laneEnds, lane * 2);
+				}
+				heap[lane] = ((long) IntervalIndex.sortable(end)) << 32 | lane;
+				siftUp(heap, lane);
+				laneCount++;
+			}
+			laneEnds[lane] = end;
+			lanes[i] = lane;
+		}
+		return new LanePacking(lanes, laneCount);
+	}
+
+	private static void siftUp(long[] heap, int i) {
+		long v = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (heap[parent] <= v)
+				break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = v;
+	}
+
+	private static void siftDown(long[] heap, int size) {
+		long v = heap[0];
+		int i = 0;
+		int child;
+		while ((child = 2 * i + 1) < size) {
+			if (child + 1 < size && heap[child + 1] < heap[child])
+				child++;
+			if (v <= heap[child])
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = v;
+	}
+
+	/**
+	 * packs the intervals appended since this packing was computed into the existing lanes, the previous ones keep
+	 * their lane
+	 *
+	 * @param size
+	 *            the new number of intervals, the first {@link #size()} are the same as before
+	 * @param starts
+	 * @param lengths
+	 * @param valid
+	 * @param index
+	 *            index over the previous intervals
+	 * @return
+	 */
+	public LanePacking extend(int size, float[] starts, float[] lengths, BitSet valid, IntervalIndex index) {
+		final int from = lanes.length;
+		int[] lanes = Arrays.copyOf(this.lanes, size);
+		Arrays.fill(lanes, from, size, -1);
+		final int n = valid.get(from, size).cardinality();
+		long[] keys = new long[n];
+		int k = 0;
+		for (int i = valid.nextSetBit(from); i >= 0; i = valid.nextSetBit(i + 1))
+			keys[k++] = ((long) IntervalIndex.sortable(starts[i])) << 32 | i;
+		Arrays.sort(keys);
+
+		int laneCount = this.laneCount;
+		BitSet used = new BitSet();
+		// the appended intervals, which may still overlap the next ones
+		int[] active = new int[16];
+		int activeSize = 0;
+		for (long key : keys) {
+			final int i = (int) (key & 0xFFFFFFFFL);
+			final float start = starts[i];
+			final float end = start + lengths[i];
+			used.clear();
+			for (int j : index.query(start, end))
+				used.set(lanes[j]);
+			int t = 0;
+			for (int a = 0; a < activeSize; ++a) {
+				int j = active[a];
+				if (starts[j] + lengths[j] < start)
+					continue;
+				used.set(lanes[j]);
+				active[t++] = j;
+			}
+			activeSize = t;
+			int lane = used.nextClearBit(0);
+			lanes[i] = lane;
+			laneCount = Math.max(laneCount, lane + 1);
+			if (activeSize == active.length)
+				active = Arrays.copyOf(active, activeSize * 2);
+			active[activeSize++] = i;
+		}
+		return new LanePacking(lanes, laneCount);
+	}
+
+	/**
+	 * @return the number of packed intervals including the invalid ones
+	 */
+	public int size() {
+		return lanes.length;
+	}
+
+	/**
+	 * @param index
+	 * @return the lane of the given interval or -1 if none
+	 */
+	public int getLane(int index) {
+		return lanes[index];
+	}
+
+	public int getLaneCount() {
+		return laneCount;
+	}
+}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Caleydo - Visualization for Molecular Biology - http://caleydo.org
+ * Copyright (c) The Caleydo Team. All rights reserved.
+ * Licensed under the new BSD license, available at http://caleydo.org/license
+ *******************************************************************************/
+package org.caleydo.view.genesequence.ui;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import javax.media.opengl.GL2;
+
+/**
+ * a batch of colored axis aligned rects, stored as packed vertex and color arrays, which can be submitted with a
+ * single draw call
+ *
+ * @author Samuel Gratzl
+ *
+ */
+final class RectBatch {
+	private static final int VERTEX_SIZE = 2;
+	private static final int COLOR_SIZE = 4;
+	private static final int VERTICES_PER_RECT = 4;
+
+	private FloatBuffer vertices;
+	private FloatBuffer colors;
+	private int size = 0;
+
+	public RectBatch() {
+		ensureCapacity(256);
+	}
+
+	/**
+	 * @return the number of rects
+	 */
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		vertices.clear();
+		colors.clear();
+		size = 0;
+	}
+
+	public void add(float x, float y, float w, float h, float r, float g, float b, float a) {
+		ensureCapacity(size + 1);
+		vertices.put(x).put(y);
+		vertices.put(x + w).put(y);
+		vertices.put(x + w).put(y + h);
+		vertices.put(x).put(y + h);
+		for (int i = 0; i < VERTICES_PER_RECT; ++i)
+			colors.put(r).put(g).put(b).put(a);
+		size++;
+	}
+
+	private void ensureCapacity(int rects) {
+		if (vertices != null && vertices.capacity() >= rects * VERTICES_PER_RECT * VERTEX_SIZE)
+			return;
+		int capacity = Math.max(rects, vertices == null ? 0 : size * 2);
+		vertices = grow(vertices, capacity * VERTICES_PER_RECT * VERTEX_SIZE);
+		colors = grow(colors, capacity * VERTICES_PER_RECT * COLOR_SIZE);
+	}
+
+	private static FloatBuffer grow(FloatBuffer old, int capacity) {
+		FloatBuffer b = ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		if (old != null) {
+			old.flip();
+			b.put(old);
+		}
+		return b;
+	}
+
+	/**
+	 * submits all rects with a single draw call
+	 *
+	 * @param gl
+	 * @param z
+	 *            the z value to render the rects at
+	 */
+	public void render(GL2 gl, float z) {
+		if (size == 0)
+			return;
+		vertices.rewind();
+		colors.rewind();
+		gl.glPushMatrix();
+		gl.glTranslatef(0, 0, z);
+		gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+		gl.glEnableClientState(GL2.GL_COLOR_ARRAY);
+		gl.glVertexPointer(VERTEX_SIZE, GL2.GL_FLOAT, 0, vertices);
+		gl.glColorPointer(COLOR_SIZE, GL2.GL_FLOAT, 0, colors);
+		gl.glDrawArrays(GL2.GL_QUADS, 0, size * VERTICES_PER_RECT);
+		gl.glDisableClientState(GL2.GL_COLOR_ARRAY);
+		gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+		gl.glPopMatrix();
+		// continue appending after the last rect
+		vertices.position(size * VERTICES_PER_RECT * VERTEX_SIZE);
+		colors.position(size * VERTICES_PER_RECT * COLOR_SIZE);
+	}
+
+	/**
+	 * software rendering of this batch using source over alpha blending, e.g. for checking the geometry without a
+	 * GPU
+	 *
+	 * @param target
+	 *            the image to render into, should be of type {@link BufferedImage#TYPE_INT_ARGB}
+	 */
+	public void rasterize(BufferedImage target) {
+		final int width = target.getWidth();
+		final int height = target.getHeight();
+		for (int i = 0; i < size; ++i) {
+			int v = i * VERTICES_PER_RECT * VERTEX_SIZE;
+			int c = i * VERTICES_PER_RECT * COLOR_SIZE;
+			int x0 = Math.max(0, Math.round(vertices.get(v)));
+			int y0 = Math.max(0, Math.round(vertices.get(v + 1)));
+			// at least one pixel as OpenGL would do for thin rects
+			int x1 = Math.min(width, Math.max(x0 + 1, Math.round(vertices.get(v + 4))));
+			int y1 = Math.min(height, Math.max(y0 + 1, Math.round(vertices.get(v + 5))));
+			float r = colors.get(c), g = colors.get(c + 1), b = colors.get(c + 2), a = colors.get(c + 3);
+			for (int y = y0; y < y1; ++y)
+				for (int x = x0; x < x1; ++x)
+					target.setRGB(x, y, blend(target.getRGB(x, y), r, g, b, a));
+		}
+	}
+
+	private static int blend(int dst, float r, float g, float b, float a) {
+		float da = ((dst >>> 24) & 0xFF) / 255.f;
+		float dr = ((dst >>> 16) & 0xFF) / 255.f;
+		float dg = ((dst >>> 8) & 0xFF) / 255.f;
+		float db = (dst & 0xFF) / 255.f;
+		float oa = a + da * (1 - a);
+		if (oa <= 0)
+			return 0;
+		float or = (r * a + dr * da * (1 - a)) / oa;
+		float og = (g * a + dg * da * (1 - a)) / oa;
+		float ob = (b * a + db * da * (1 - a)) / oa;
+		return toByte(oa) << 24 | toByte(or) << 16 | toByte(og) << 8 | toByte(ob);
+	}
+
+	private static int toByte(float v) {
+		return Math.max(0, Math.min(255, Math.round(v * 255)));
+	}
+}